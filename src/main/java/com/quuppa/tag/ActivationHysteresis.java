@@ -0,0 +1,82 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+/**
+ * Debounces an activation condition (inside geofence, in selected Wi-Fi) with minimum dwell times. A change of the raw condition
+ * is only accepted after it has persisted for the enter or exit dwell time. If the raw condition flips back before that, the
+ * transition is suppressed and counted. Each start/stop cycle of the service re-acquires the wake lock, re-registers sensors and
+ * rebuilds the advertising set, so a few extra seconds in the current state are much cheaper than a flap.
+ */
+final class ActivationHysteresis {
+	private long enterDwellMs;
+	private long exitDwellMs;
+
+	private boolean initialized;
+	private boolean active;
+	private boolean pending;
+	private long pendingSince;
+
+	ActivationHysteresis(long enterDwellMs, long exitDwellMs) {
+		configure(enterDwellMs, exitDwellMs);
+	}
+
+	void configure(long enterDwellMs, long exitDwellMs) {
+		this.enterDwellMs = enterDwellMs;
+		this.exitDwellMs = exitDwellMs;
+	}
+
+	/**
+	 * @param condition the raw condition as currently observed
+	 * @param now current time in elapsed realtime milliseconds
+	 * @return the debounced state
+	 */
+	boolean update(boolean condition, long now) {
+		// first observation is taken as is, there's nothing to flap from
+		if (!initialized) {
+			initialized = true;
+			active = condition;
+			return active;
+		}
+		if (condition == active) {
+			if (pending) {
+				pending = false;
+				QuuppaTagMetrics.incrementSuppressedGatingTransitions();
+			}
+			return active;
+		}
+		if (!pending) {
+			pending = true;
+			pendingSince = now;
+		}
+		if (now - pendingSince >= (condition ? enterDwellMs : exitDwellMs)) {
+			pending = false;
+			active = condition;
+		}
+		return active;
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	/** @return time in elapsed realtime milliseconds when a pending transition would be accepted, or -1 if none is pending */
+	long getPendingDeadline() {
+		return pending ? pendingSince + (active ? exitDwellMs : enterDwellMs) : -1;
+	}
+
+	void reset() {
+		initialized = false;
+		pending = false;
+	}
+}
@@ -0,0 +1,289 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conditional activation rule compiled into an evaluation tree. Conditions are combined with '&amp;' (and), '|' (or), '!' (not)
+ * and parentheses, '&amp;' binds tighter than '|'. Available conditions are:
+ * <ul>
+ * <li>geofence - inside a geofence zone</li>
+ * <li>wifi - connected to a selected Wi-Fi network</li>
+ * <li>charging - device is plugged in</li>
+ * <li>battery&gt;=N, battery&lt;N - battery level in percent</li>
+ * <li>time=HH:MM-HH:MM - time of day in the operating time zone, the range may wrap over midnight, 24:00 is the end of the day</li>
+ * </ul>
+ * For example "(geofence | wifi) &amp; (charging | battery&gt;=20)".
+ *
+ * The rule is compiled once. Each and/or node keeps a count of its true children, so when an input changes only the leaves that
+ * depend on it are re-evaluated and the change propagates upwards only as far as node values actually change.
+ */
+final class ActivationRule {
+	static final int INPUT_GEOFENCE = 0, INPUT_WIFI = 1, INPUT_CHARGING = 2, INPUT_BATTERY = 3, INPUT_TIME = 4;
+	private static final int INPUT_COUNT = 5;
+	private static final int AND = 0, OR = 1, NOT = 2, LEAF = 3;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	private final int[] type;
+	private final int[] parent;
+	private final int[] childCount;
+	private final int[] trueCount;
+	private final int[] input;
+	// leaf parameters, value range [low, high) of the input
+	private final int[] low;
+	private final int[] high;
+	private final boolean[] value;
+	private final int root;
+	private final int[][] leavesByInput = new int[INPUT_COUNT][];
+	private final int[] inputValues = new int[INPUT_COUNT];
+
+	/**
+	 * @param expression the rule
+	 * @return compiled rule, or null if the expression is null or empty
+	 * @throws IllegalArgumentException if the expression is malformed
+	 */
+	static ActivationRule parse(String expression) {
+		if (expression == null || expression.trim().isEmpty()) return null;
+		Parser parser = new Parser(expression);
+		int root = parser.parseOr();
+		parser.skipWhitespace();
+		if (parser.position < expression.length()) throw parser.error("Unexpected input");
+		return new ActivationRule(parser, root);
+	}
+
+	private ActivationRule(Parser parser, int root) {
+		int size = parser.types.size();
+		type = new int[size];
+		parent = new int[size];
+		childCount = new int[size];
+		trueCount = new int[size];
+		input = new int[size];
+		low = new int[size];
+		high = new int[size];
+		value = new boolean[size];
+		this.root = root;
+		int[] leafCounts = new int[INPUT_COUNT];
+		for (int i = 0; i < size; i++) {
+			type[i] = parser.types.get(i);
+			parent[i] = parser.parents.get(i);
+			input[i] = parser.inputs.get(i);
+			low[i] = parser.lows.get(i);
+			high[i] = parser.highs.get(i);
+			if (parent[i] >= 0) childCount[parent[i]]++;
+			if (type[i] == LEAF) leafCounts[input[i]]++;
+		}
+		for (int i = 0; i < INPUT_COUNT; i++) leavesByInput[i] = new int[leafCounts[i]];
+		for (int i = 0; i < size; i++) if (type[i] == LEAF) leavesByInput[input[i]][--leafCounts[input[i]]] = i;
+
+		// Until told otherwise, assume the device is where it should be, same as without any rule
+		inputValues[INPUT_GEOFENCE] = 1;
+		inputValues[INPUT_WIFI] = 1;
+		inputValues[INPUT_BATTERY] = 100;
+		evaluate(root);
+	}
+
+	private boolean evaluate(int node) {
+		if (type[node] == LEAF) return value[node] = evaluateLeaf(node);
+		trueCount[node] = 0;
+		for (int i = 0; i < type.length; i++) if (parent[i] == node && evaluate(i)) trueCount[node]++;
+		if (type[node] == NOT) return value[node] = trueCount[node] == 0;
+		return value[node] = type[node] == AND ? trueCount[node] == childCount[node] : trueCount[node] > 0;
+	}
+
+	private boolean evaluateLeaf(int node) {
+		int v = inputValues[input[node]];
+		// wraps over midnight
+		if (low[node] > high[node]) return v >= low[node] || v < high[node];
+		return v >= low[node] && v < high[node];
+	}
+
+	/**
+	 * Updates an input and re-evaluates the branches depending on it
+	 * @param input one of the INPUT_ constants
+	 * @param inputValue 0 or 1 for boolean inputs, battery level in percent or local minute of day
+	 */
+	void setInput(int input, int inputValue) {
+		if (inputValues[input] == inputValue) return;
+		inputValues[input] = inputValue;
+		for (int leaf : leavesByInput[input]) propagate(leaf, evaluateLeaf(leaf));
+	}
+
+	void setInput(int input, boolean inputValue) {
+		setInput(input, inputValue ? 1 : 0);
+	}
+
+	private void propagate(int node, boolean newValue) {
+		while (value[node] != newValue) {
+			value[node] = newValue;
+			int p = parent[node];
+			if (p < 0) return;
+			trueCount[p] += newValue ? 1 : -1;
+			if (type[p] == NOT) newValue = trueCount[p] == 0;
+			else newValue = type[p] == AND ? trueCount[p] == childCount[p] : trueCount[p] > 0;
+			node = p;
+		}
+	}
+
+	boolean isActive() {
+		return value[root];
+	}
+
+	boolean usesInput(int input) {
+		return leavesByInput[input].length > 0;
+	}
+
+	/** @return minutes from the given minute of day to the next time boundary in the rule, or -1 if the rule has no time conditions */
+	int minutesToNextTimeBoundary(int minuteOfDay) {
+		int next = -1;
+		for (int leaf : leavesByInput[INPUT_TIME]) {
+			for (int boundary : new int[] { low[leaf], high[leaf] }) {
+				int minutes = (boundary - minuteOfDay + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+				if (minutes == 0) minutes = MINUTES_PER_DAY;
+				if (next < 0 || minutes < next) next = minutes;
+			}
+		}
+		return next;
+	}
+
+	// Recursive descent parser, collects the nodes in parallel lists
+	private static class Parser {
+		private final String expression;
+		private int position;
+		private final List<Integer> types = new ArrayList<>();
+		private final List<Integer> parents = new ArrayList<>();
+		private final List<Integer> inputs = new ArrayList<>();
+		private final List<Integer> lows = new ArrayList<>();
+		private final List<Integer> highs = new ArrayList<>();
+
+		Parser(String expression) {
+			this.expression = expression;
+		}
+
+		private int addNode(int type, int input, int low, int high) {
+			types.add(type);
+			parents.add(-1);
+			inputs.add(input);
+			lows.add(low);
+			highs.add(high);
+			return types.size() - 1;
+		}
+
+		// n-ary node for a chain of the same operator
+		private int combine(int type, List<Integer> children) {
+			if (children.size() == 1) return children.get(0);
+			int node = addNode(type, 0, 0, 0);
+			for (int child : children) parents.set(child, node);
+			return node;
+		}
+
+		int parseOr() {
+			List<Integer> children = new ArrayList<>();
+			children.add(parseAnd());
+			while (accept('|')) children.add(parseAnd());
+			return combine(OR, children);
+		}
+
+		private int parseAnd() {
+			List<Integer> children = new ArrayList<>();
+			children.add(parseUnary());
+			while (accept('&')) children.add(parseUnary());
+			return combine(AND, children);
+		}
+
+		private int parseUnary() {
+			if (accept('!')) {
+				int child = parseUnary();
+				int node = addNode(NOT, 0, 0, 0);
+				parents.set(child, node);
+				return node;
+			}
+			if (accept('(')) {
+				int node = parseOr();
+				if (!accept(')')) throw error("Expected ')'");
+				return node;
+			}
+			return parseCondition();
+		}
+
+		private int parseCondition() {
+			skipWhitespace();
+			int start = position;
+			while (position < expression.length() && Character.isLetter(expression.charAt(position))) position++;
+			String name = expression.substring(start, position);
+			switch (name) {
+			case "geofence":
+				return addNode(LEAF, INPUT_GEOFENCE, 1, 2);
+			case "wifi":
+				return addNode(LEAF, INPUT_WIFI, 1, 2);
+			case "charging":
+				return addNode(LEAF, INPUT_CHARGING, 1, 2);
+			case "battery":
+				if (accept(">=")) return addNode(LEAF, INPUT_BATTERY, parseNumber(), Integer.MAX_VALUE);
+				if (accept('<')) return addNode(LEAF, INPUT_BATTERY, Integer.MIN_VALUE, parseNumber());
+				throw error("Expected '>=' or '<'");
+			case "time":
+				if (!accept('=')) throw error("Expected '='");
+				int from = parseTime();
+				if (!accept('-')) throw error("Expected '-'");
+				return addNode(LEAF, INPUT_TIME, from, parseTime());
+			default:
+				throw error("Unknown condition '" + name + "'");
+			}
+		}
+
+		private int parseTime() {
+			int hours = parseNumber();
+			if (!accept(':')) throw error("Expected ':'");
+			int minutes = parseNumber();
+			if (hours > 24 || minutes > 59 || hours * 60 + minutes > MINUTES_PER_DAY) throw error("Invalid time");
+			// not wrapped to 00:00, "00:00-24:00" is the whole day rather than an empty range
+			return hours * 60 + minutes;
+		}
+
+		private int parseNumber() {
+			skipWhitespace();
+			int start = position;
+			while (position < expression.length() && Character.isDigit(expression.charAt(position))) position++;
+			if (start == position) throw error("Expected a number");
+			return Integer.parseInt(expression.substring(start, position));
+		}
+
+		private boolean accept(char c) {
+			skipWhitespace();
+			if (position < expression.length() && expression.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean accept(String s) {
+			skipWhitespace();
+			if (expression.startsWith(s, position)) {
+				position += s.length();
+				return true;
+			}
+			return false;
+		}
+
+		void skipWhitespace() {
+			while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) position++;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + position + " in activation rule '" + expression + "'");
+		}
+	}
+}
@@ -0,0 +1,78 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.Random;
+
+import android.bluetooth.le.AdvertisingSetCallback;
+
+/**
+ * Retries failed advertising set starts of the emulated tags with the backoff of {@link EmulatedTag#getRetryDelayMs(double)}.
+ * Data too large and unsupported features won't go away by trying again, such a tag is given up on. The retries are posted to
+ * a {@link Scheduler}, the service's handler, and restart the tag through a {@link Starter}.
+ */
+final class AdvertisingRetry {
+	/** Posts the retries, {@link android.os.Handler} has the same methods */
+	interface Scheduler {
+		void postDelayed(Runnable runnable, long delayMs);
+		void removeCallbacks(Runnable runnable);
+	}
+
+	interface Starter {
+		/** Starts the advertising set of the tag again, reports back to {@link AdvertisingRetry#onFailed} if that fails too */
+		void start(EmulatedTag tag);
+	}
+
+	private final Scheduler scheduler;
+	private final Starter starter;
+	private final Random random;
+
+	AdvertisingRetry(Scheduler scheduler, Starter starter, Random random) {
+		this.scheduler = scheduler;
+		this.starter = starter;
+		this.random = random;
+	}
+
+	static boolean isPermanentFailure(int status) {
+		return status == AdvertisingSetCallback.ADVERTISE_FAILED_DATA_TOO_LARGE || status == AdvertisingSetCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED;
+	}
+
+	/**
+	 * Schedules a retry of the failed start, or gives up on the tag if the failure is permanent
+	 * @param now elapsed realtime in ms
+	 * @return delay of the retry in ms, -1 if the tag was given up on
+	 */
+	long onFailed(final EmulatedTag tag, int status, long now) {
+		if (isPermanentFailure(status)) {
+			tag.failedPermanently = true;
+			cancel(tag);
+			return -1;
+		}
+		if (tag.failures == 0) tag.failedSince = now;
+		tag.failures++;
+		long delay = tag.getRetryDelayMs(random.nextDouble());
+		if (tag.retry == null) tag.retry = new Runnable() {
+			@Override
+			public void run() {
+				starter.start(tag);
+			}
+		};
+		scheduler.removeCallbacks(tag.retry);
+		scheduler.postDelayed(tag.retry, delay);
+		return delay;
+	}
+
+	void cancel(EmulatedTag tag) {
+		if (tag.retry != null) scheduler.removeCallbacks(tag.retry);
+	}
+}
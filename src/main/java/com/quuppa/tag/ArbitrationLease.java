@@ -0,0 +1,172 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Lease between the app advertising a tag ID and the apps staying dormant because of it, see
+ * {@link QuuppaTag#setArbitration(Context, boolean)}. Nobody polls: the leader tells its followers when it stops advertising the
+ * tag, and the followers link to the leader's token to learn when its process dies. Either way a follower wakes up with an
+ * arbitration check alarm, the only way to start a foreground service from the background. A follower whose process the system
+ * has reclaimed only learns about a graceful stop, its process is started again for that. State is per process, the service
+ * instances come and go.
+ */
+final class ArbitrationLease {
+	// provider calls are binder calls that may have to start the other app's process first, run them one at a time off the main thread
+	static final ExecutorService executor = Executors.newSingleThreadExecutor();
+	// handed to followers, only its identity and death matter
+	private static final Binder token = new Binder();
+	// leader side, packages staying dormant by tag ID
+	private static final Map<String, Set<String>> followers = new HashMap<>();
+	// follower side, the leader's token and our link to it
+	private static IBinder leaderToken;
+	private static IBinder.DeathRecipient leaderDeathRecipient;
+
+	/** The leader, or the app claiming the tag, found by {@link #findLeader(Context, String)} */
+	static final class Leader {
+		final String packageName;
+		final IBinder token;
+
+		Leader(String packageName, IBinder token) {
+			this.packageName = packageName;
+			this.token = token;
+		}
+	}
+
+	private ArbitrationLease() {}
+
+	/**
+	 * Asks the other apps signed with our key whether they advertise the tag. Of two apps starting at the same time, both only
+	 * claiming the tag, the one with the lower package name gets it. Blocks on binder calls, call on {@link #executor}.
+	 * @return the app with the lowest package name advertising the tag, or claiming it ahead of us, null if none
+	 */
+	static Leader findLeader(Context context, String tagId) {
+		PackageManager packageManager = context.getPackageManager();
+		String packageName = context.getPackageName();
+		Leader leader = null;
+		for (ResolveInfo resolveInfo : packageManager.queryIntentContentProviders(new Intent(QuuppaTagArbitrationProvider.ACTION), 0)) {
+			ProviderInfo provider = resolveInfo.providerInfo;
+			if (provider == null || packageName.equals(provider.packageName)) continue;
+			// only trust apps signed with the same key
+			if (packageManager.checkSignatures(packageName, provider.packageName) != PackageManager.SIGNATURE_MATCH) continue;
+			Bundle status;
+			try {
+				// starts the other app's process if needed, a fresh process isn't advertising
+				status = context.getContentResolver().call(Uri.parse("content://" + provider.authority),
+						QuuppaTagArbitrationProvider.METHOD_STATUS, tagId, null);
+			} catch (RuntimeException e) {
+				// uninstalled or disabled in between, or doesn't trust us
+				Log.w(ArbitrationLease.class.getSimpleName(), "Arbitration status of " + provider.packageName + " not available", e);
+				continue;
+			}
+			if (status == null) continue;
+			boolean advertising = status.getBoolean(QuuppaTagArbitrationProvider.KEY_ADVERTISING);
+			boolean claiming = status.getBoolean(QuuppaTagArbitrationProvider.KEY_CLAIMING) 
+					&& provider.packageName.compareTo(packageName) < 0;
+			if (!advertising && !claiming) continue;
+			if (leader == null || provider.packageName.compareTo(leader.packageName) < 0)
+				leader = new Leader(provider.packageName, status.getBinder(QuuppaTagArbitrationProvider.KEY_LEASE));
+		}
+		return leader;
+	}
+
+	/** Leader side: the calling package stays dormant while we advertise the tag, the returned token goes to it */
+	static synchronized IBinder addFollower(String tagId, String packageName) {
+		Set<String> packageNames = followers.get(tagId);
+		if (packageNames == null) followers.put(tagId, packageNames = new HashSet<>());
+		packageNames.add(packageName);
+		return token;
+	}
+
+	/** Leader side: we stopped advertising the tag, wake up its followers */
+	static void release(Context context, String tagId) {
+		final Context applicationContext = context.getApplicationContext();
+		final Set<String> packageNames;
+		synchronized (ArbitrationLease.class) {
+			packageNames = followers.remove(tagId);
+		}
+		if (packageNames == null) return;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				PackageManager packageManager = applicationContext.getPackageManager();
+				for (ResolveInfo resolveInfo : packageManager.queryIntentContentProviders(new Intent(QuuppaTagArbitrationProvider.ACTION), 0)) {
+					ProviderInfo provider = resolveInfo.providerInfo;
+					if (provider == null || !packageNames.contains(provider.packageName)) continue;
+					try {
+						applicationContext.getContentResolver().call(Uri.parse("content://" + provider.authority),
+								QuuppaTagArbitrationProvider.METHOD_RELEASED, null, null);
+					} catch (RuntimeException e) {
+						Log.w(ArbitrationLease.class.getSimpleName(), "Couldn't tell " + provider.packageName + " the tag is released", e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Follower side: stay dormant until the leader releases the tag or its process dies
+	 * @param leaderToken the leader's token, null if we advertise the tag ourselves
+	 */
+	static synchronized void follow(Context context, IBinder leaderToken) {
+		unfollow();
+		if (leaderToken == null) return;
+		final Context applicationContext = context.getApplicationContext();
+		IBinder.DeathRecipient deathRecipient = new IBinder.DeathRecipient() {
+			@Override
+			public void binderDied() {
+				Log.i(ArbitrationLease.class.getSimpleName(), "Arbitration leader died");
+				onReleased(applicationContext);
+			}
+		};
+		try {
+			leaderToken.linkToDeath(deathRecipient, 0);
+		} catch (RemoteException e) {
+			// died already
+			onReleased(applicationContext);
+			return;
+		}
+		ArbitrationLease.leaderToken = leaderToken;
+		leaderDeathRecipient = deathRecipient;
+	}
+
+	/** Follower side: the leader let go of the tag, arbitrate again */
+	static void onReleased(Context context) {
+		unfollow();
+		QuuppaTagService.requestArbitrationCheck(context);
+	}
+
+	private static synchronized void unfollow() {
+		if (leaderToken != null) leaderToken.unlinkToDeath(leaderDeathRecipient, 0);
+		leaderToken = null;
+		leaderDeathRecipient = null;
+	}
+}
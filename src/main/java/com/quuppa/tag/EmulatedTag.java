@@ -0,0 +1,113 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.quuppa.tag.QuuppaTag.DeviceType;
+
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+/**
+ * One tag emulated by the service, each with its own tag ID, device type and advertising set. All tags share the motion state and
+ * the power policy of the service, a tag can only advertise at a lower rate than the shared policy.
+ */
+final class EmulatedTag {
+	/** Most Bluetooth controllers support at least this many advertising sets, the actual limit is learned at runtime */
+	static final int MAX_TAGS = 4;
+	static final int MAX_INTERVAL_SHIFT = 4;
+	// Failed starts are retried after 1, 2, 4 ... 64 s with jitter, so a tag is silent at most about a minute after the cause is gone
+	static final long RETRY_BASE_DELAY_MS = 1000L;
+	static final int MAX_RETRY_SHIFT = 6;
+
+	final String tagId;
+	final DeviceType deviceType;
+	// advertising interval is shifted left by this, each step halves the rate
+	final int intervalShift;
+
+	AdvertisingSetCallback advertisingSetCallback;
+	volatile AdvertisingSet advertisingSet;
+	boolean advertisingStarted;
+	AdvertisingSetParameters advertisingSetParameters;
+	// manufacturer data confirmed on air, sent to the stack but not confirmed yet, and the latest one waiting for that
+	byte[] publishedData;
+	byte[] inFlightData;
+	byte[] pendingData;
+	// consecutive failed starts, since when the tag has been silent and the retry posted by AdvertisingRetry
+	int failures;
+	long failedSince;
+	boolean failedPermanently;
+	Runnable retry;
+	// set by the liveness watchdog, cleared by any callback from the current set
+	boolean livenessCheckPending;
+	// the set kept on air until its replacement has started, and since when the tag has been off air if it couldn't be kept
+	AdvertisingSetCallback replacedCallback;
+	long offAirSince;
+
+	EmulatedTag(String tagId, DeviceType deviceType, int intervalShift) {
+		this.tagId = tagId;
+		this.deviceType = deviceType;
+		this.intervalShift = intervalShift;
+	}
+
+	/**
+	 * @return true while failed starts are retried with backoff or have been given up on. Only the retry starts such a tag, 
+	 * regular starts and reconfigurations leave it alone.
+	 */
+	boolean isFailing() {
+		return failures > 0 || failedPermanently;
+	}
+
+	/**
+	 * @param random uniformly distributed in [0, 1)
+	 * @return delay before retrying a failed start, exponential in the number of failures and randomized to [delay / 2, delay) so 
+	 * that retries of several tags or devices don't line up
+	 */
+	long getRetryDelayMs(double random) {
+		long delay = RETRY_BASE_DELAY_MS << Math.min(Math.max(failures - 1, 0), MAX_RETRY_SHIFT);
+		return delay / 2 + (long) (random * delay / 2);
+	}
+
+	/**
+	 * Parses tags separated by ';', each "tagId[,deviceType[,intervalShift]]", e.g. "0123456789ab,TABLET,2; ba9876543210"
+	 * @return the tags, empty if spec is null or empty
+	 * @throws IllegalArgumentException if the spec is malformed
+	 */
+	static List<EmulatedTag> parse(String spec) {
+		List<EmulatedTag> tags = new ArrayList<>();
+		if (spec == null) return tags;
+		for (String tag : spec.split(";")) {
+			tag = tag.trim();
+			if (tag.isEmpty()) continue;
+			String[] parts = tag.split(",");
+			if (parts.length > 3) throw new IllegalArgumentException("Invalid emulated tag '" + tag + "'");
+			String tagId = parts[0].trim().toLowerCase();
+			if (!tagId.matches("[0-9a-f]{12}")) throw new IllegalArgumentException("Tag ID must be 12 hex digits in emulated tag '" + tag + "'");
+			DeviceType deviceType = DeviceType.SMARTPHONE;
+			int intervalShift = 0;
+			try {
+				if (parts.length > 1) deviceType = DeviceType.valueOf(parts[1].trim().toUpperCase());
+				if (parts.length > 2) intervalShift = Integer.parseInt(parts[2].trim());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Invalid device type or interval shift in emulated tag '" + tag + "'", e);
+			}
+			if (intervalShift < 0 || intervalShift > MAX_INTERVAL_SHIFT)
+				throw new IllegalArgumentException("Interval shift must be between 0 and " + MAX_INTERVAL_SHIFT + " in emulated tag '" + tag + "'");
+			tags.add(new EmulatedTag(tagId, deviceType, intervalShift));
+		}
+		return tags;
+	}
+}
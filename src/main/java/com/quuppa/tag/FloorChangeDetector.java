@@ -0,0 +1,55 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+/**
+ * Detects floor changes from barometric pressure. A fast moving average follows the current pressure and a slow one the baseline,
+ * which also absorbs weather changes of a few hPa per hour. One floor of 3-4 m is about 0.4 hPa, so a difference over
+ * {@link #FLOOR_CHANGE_HPA} between the two is taken as a floor change. The fast average smooths out pressure spikes from doors
+ * and ventilation. After a detection the baseline jumps to the current pressure so the same change isn't reported again.
+ */
+final class FloorChangeDetector {
+	static final float FLOOR_CHANGE_HPA = 0.25f;
+	private static final float FAST_TIME_CONSTANT_S = 3f;
+	private static final float SLOW_TIME_CONSTANT_S = 60f;
+
+	private float fast;
+	private float slow;
+	private long lastTimestampNs;
+
+	/**
+	 * @param pressure pressure in hPa
+	 * @param timestampNs event timestamp in nanoseconds
+	 * @return true if a floor change was detected
+	 */
+	boolean onPressure(float pressure, long timestampNs) {
+		if (lastTimestampNs == 0) {
+			fast = pressure;
+			slow = pressure;
+			lastTimestampNs = timestampNs;
+			return false;
+		}
+		if (timestampNs <= lastTimestampNs) return false;
+		float dt = (timestampNs - lastTimestampNs) / 1e9f;
+		lastTimestampNs = timestampNs;
+		fast += dt / (FAST_TIME_CONSTANT_S + dt) * (pressure - fast);
+		slow += dt / (SLOW_TIME_CONSTANT_S + dt) * (pressure - slow);
+		if (Math.abs(fast - slow) < FLOOR_CHANGE_HPA) return false;
+		slow = fast;
+		return true;
+	}
+
+	void reset() {
+		lastTimestampNs = 0;
+	}
+}
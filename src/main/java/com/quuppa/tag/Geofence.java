@@ -0,0 +1,320 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable set of geofence zones (circles and polygons) used for location gating. The zones are parsed once and projected
+ * onto a local plane (in meters) around the centroid of all zones, which is accurate enough at campus scale. A coarse uniform
+ * grid maps each cell to the zones overlapping it, so testing a location fix only looks at a handful of zones. Evaluating a
+ * fix doesn't allocate.
+ *
+ * The zone specification is a semicolon separated list of zones. A circle is "lat,lon[,radius]" (radius in meters) and a polygon
+ * is three or more space separated "lat,lon" vertices, e.g. "60.1699,24.9384,200;60.17,24.93 60.171,24.93 60.171,24.932".
+ * Whitespace around the commas is ignored, so "60.1699, 24.9384" is a circle.
+ *
+ * Not thread safe, distanceToBoundary() marks the zones it has measured in a scratch array.
+ */
+final class Geofence {
+	private static final double EARTH_RADIUS_METERS = 6371008.8;
+	private static final int MAX_GRID_CELLS_PER_AXIS = 64;
+	private static final double MIN_GRID_CELL_SIZE_METERS = 25;
+
+	private final double originLat;
+	private final double originLon;
+	private final double metersPerDegreeLat;
+	private final double metersPerDegreeLon;
+
+	// Per zone. For circles the center and radius are exact, for polygons they are the bounding circle
+	private final int zoneCount;
+	private final double[] centerX;
+	private final double[] centerY;
+	private final double[] radius;
+	private final int[] vertexStart; // -1 for circles
+	private final int[] vertexEnd;
+	private final double[] minX;
+	private final double[] minY;
+	private final double[] maxX;
+	private final double[] maxY;
+
+	// Polygon vertices of all zones in projected coordinates
+	private final double[] xs;
+	private final double[] ys;
+
+	// Grid in compressed row form, zones of cell i are cellZones[cellStart[i]] ... cellZones[cellStart[i + 1] - 1]
+	private final double gridMinX;
+	private final double gridMinY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	private final int[] cellStart;
+	private final int[] cellZones;
+	// generation of the distanceToBoundary() call that last measured each zone
+	private final int[] zoneMeasured;
+	private int generation;
+
+	/**
+	 * Parses the zone specification. A malformed zone is left out, the other zones are still used.
+	 * @param spec zones as described in the class documentation
+	 * @param defaultRadius radius in meters used for circles that don't specify one
+	 * @param rejectedZones receives the reason for each zone left out
+	 * @return the geofence or null if the spec is null or has no valid zones
+	 */
+	static Geofence parse(String spec, float defaultRadius, List<String> rejectedZones) {
+		if (spec == null) return null;
+
+		List<double[]> zones = new ArrayList<>();
+		for (String zoneSpec : spec.split(";")) {
+			zoneSpec = zoneSpec.trim();
+			if (zoneSpec.isEmpty()) continue;
+			try {
+				zones.add(parseZone(zoneSpec, defaultRadius));
+			} catch (IllegalArgumentException e) {
+				rejectedZones.add(e instanceof NumberFormatException ? "Invalid number in zone '" + zoneSpec + "'" : e.getMessage());
+			}
+		}
+		if (zones.isEmpty()) return null;
+		return new Geofence(zones);
+	}
+
+	private static double[] parseZone(String zoneSpec, float defaultRadius) {
+		// vertices are separated by whitespace, but "lat, lon" is still one vertex
+		String[] vertices = zoneSpec.replaceAll("\\s*,\\s*", ",").split("\\s+");
+		if (vertices.length == 1) {
+			String[] parts = vertices[0].split(",");
+			if (parts.length != 2 && parts.length != 3) throw new IllegalArgumentException("Invalid circle zone '" + zoneSpec + "'");
+			double r = parts.length == 3 ? Double.parseDouble(parts[2]) : defaultRadius;
+			if (!(r > 0)) throw new IllegalArgumentException("Invalid radius in zone '" + zoneSpec + "'");
+			// circle is stored as {lat, lon, radius}
+			return new double[] { Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), r };
+		}
+		if (vertices.length < 3) throw new IllegalArgumentException("Polygon zone '" + zoneSpec + "' needs at least three vertices");
+		// polygon is stored as {lat0, lon0, lat1, lon1, ...}, i.e. always even length
+		double[] polygon = new double[vertices.length * 2];
+		for (int i = 0; i < vertices.length; i++) {
+			String[] parts = vertices[i].split(",");
+			if (parts.length != 2) throw new IllegalArgumentException("Invalid vertex '" + vertices[i] + "' in zone '" + zoneSpec + "'");
+			polygon[i * 2] = Double.parseDouble(parts[0]);
+			polygon[i * 2 + 1] = Double.parseDouble(parts[1]);
+		}
+		return polygon;
+	}
+
+	private Geofence(List<double[]> zones) {
+		zoneCount = zones.size();
+
+		// projection origin is the mean of all circle centers and polygon vertices
+		double latSum = 0, lonSum = 0;
+		int points = 0, vertexCount = 0;
+		for (double[] zone : zones) {
+			boolean circle = zone.length == 3;
+			for (int i = 0; i < (circle ? 2 : zone.length); i += 2) {
+				latSum += zone[i];
+				lonSum += zone[i + 1];
+				points++;
+			}
+			if (!circle) vertexCount += zone.length / 2;
+		}
+		originLat = latSum / points;
+		originLon = lonSum / points;
+		metersPerDegreeLat = Math.toRadians(EARTH_RADIUS_METERS);
+		metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(originLat));
+
+		centerX = new double[zoneCount];
+		centerY = new double[zoneCount];
+		radius = new double[zoneCount];
+		vertexStart = new int[zoneCount];
+		vertexEnd = new int[zoneCount];
+		minX = new double[zoneCount];
+		minY = new double[zoneCount];
+		maxX = new double[zoneCount];
+		maxY = new double[zoneCount];
+		xs = new double[vertexCount];
+		ys = new double[vertexCount];
+
+		int v = 0;
+		for (int z = 0; z < zoneCount; z++) {
+			double[] zone = zones.get(z);
+			if (zone.length == 3) {
+				centerX[z] = projectX(zone[1]);
+				centerY[z] = projectY(zone[0]);
+				radius[z] = zone[2];
+				vertexStart[z] = -1;
+				minX[z] = centerX[z] - radius[z];
+				minY[z] = centerY[z] - radius[z];
+				maxX[z] = centerX[z] + radius[z];
+				maxY[z] = centerY[z] + radius[z];
+				continue;
+			}
+			vertexStart[z] = v;
+			minX[z] = minY[z] = Double.POSITIVE_INFINITY;
+			maxX[z] = maxY[z] = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < zone.length; i += 2, v++) {
+				xs[v] = projectX(zone[i + 1]);
+				ys[v] = projectY(zone[i]);
+				minX[z] = Math.min(minX[z], xs[v]);
+				minY[z] = Math.min(minY[z], ys[v]);
+				maxX[z] = Math.max(maxX[z], xs[v]);
+				maxY[z] = Math.max(maxY[z], ys[v]);
+			}
+			vertexEnd[z] = v;
+			centerX[z] = (minX[z] + maxX[z]) / 2;
+			centerY[z] = (minY[z] + maxY[z]) / 2;
+			double r = 0;
+			for (int i = vertexStart[z]; i < v; i++) r = Math.max(r, Math.hypot(xs[i] - centerX[z], ys[i] - centerY[z]));
+			radius[z] = r;
+		}
+
+		double gMinX = Double.POSITIVE_INFINITY, gMinY = Double.POSITIVE_INFINITY;
+		double gMaxX = Double.NEGATIVE_INFINITY, gMaxY = Double.NEGATIVE_INFINITY;
+		for (int z = 0; z < zoneCount; z++) {
+			gMinX = Math.min(gMinX, minX[z]);
+			gMinY = Math.min(gMinY, minY[z]);
+			gMaxX = Math.max(gMaxX, maxX[z]);
+			gMaxY = Math.max(gMaxY, maxY[z]);
+		}
+		gridMinX = gMinX;
+		gridMinY = gMinY;
+		cellSize = Math.max(MIN_GRID_CELL_SIZE_METERS, Math.max(gMaxX - gMinX, gMaxY - gMinY) / MAX_GRID_CELLS_PER_AXIS);
+		columns = Math.max(1, (int) Math.ceil((gMaxX - gMinX) / cellSize));
+		rows = Math.max(1, (int) Math.ceil((gMaxY - gMinY) / cellSize));
+
+		// two passes, first count zones per cell, then fill
+		cellStart = new int[columns * rows + 1];
+		for (int z = 0; z < zoneCount; z++)
+			for (int row = row(minY[z]); row <= row(maxY[z]); row++)
+				for (int column = column(minX[z]); column <= column(maxX[z]); column++)
+					cellStart[row * columns + column + 1]++;
+		for (int i = 1; i < cellStart.length; i++) cellStart[i] += cellStart[i - 1];
+		cellZones = new int[cellStart[cellStart.length - 1]];
+		zoneMeasured = new int[zoneCount];
+		int[] fill = new int[columns * rows];
+		for (int z = 0; z < zoneCount; z++)
+			for (int row = row(minY[z]); row <= row(maxY[z]); row++)
+				for (int column = column(minX[z]); column <= column(maxX[z]); column++) {
+					int cell = row * columns + column;
+					cellZones[cellStart[cell] + fill[cell]++] = z;
+				}
+	}
+
+	private double projectX(double lon) {
+		return (lon - originLon) * metersPerDegreeLon;
+	}
+
+	private double projectY(double lat) {
+		return (lat - originLat) * metersPerDegreeLat;
+	}
+
+	private int column(double x) {
+		return Math.min(columns - 1, Math.max(0, (int) ((x - gridMinX) / cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.min(rows - 1, Math.max(0, (int) ((y - gridMinY) / cellSize)));
+	}
+
+	int getZoneCount() {
+		return zoneCount;
+	}
+
+	/**
+	 * @return true if the given location is inside any of the zones
+	 */
+	boolean contains(double lat, double lon) {
+		double x = projectX(lon);
+		double y = projectY(lat);
+		if (x < gridMinX || y < gridMinY || x > gridMinX + columns * cellSize || y > gridMinY + rows * cellSize) return false;
+
+		int cell = row(y) * columns + column(x);
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+			int z = cellZones[i];
+			if (x < minX[z] || x > maxX[z] || y < minY[z] || y > maxY[z]) continue;
+			if (vertexStart[z] < 0) {
+				double dx = x - centerX[z], dy = y - centerY[z];
+				if (dx * dx + dy * dy <= radius[z] * radius[z]) return true;
+			}
+			else if (insidePolygon(z, x, y)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Signed distance in meters from the given location to the nearest zone boundary. Negative when inside a zone, in which case
+	 * the magnitude is the distance to the edge of the zone the location is deepest in. The grid is searched in square rings around
+	 * the cell of the location until no zone in the remaining cells can be nearer, and zones are pruned by their bounding circle so
+	 * only the nearby polygons are measured exactly.
+	 */
+	float distanceToBoundary(double lat, double lon) {
+		double x = projectX(lon);
+		double y = projectY(lat);
+		// how far outside the grid the location is on each axis, zero when within
+		double outsideX = Math.max(0, Math.max(gridMinX - x, x - (gridMinX + columns * cellSize)));
+		double outsideY = Math.max(0, Math.max(gridMinY - y, y - (gridMinY + rows * cellSize)));
+		int column = column(x);
+		int row = row(y);
+		generation++;
+		double best = Double.POSITIVE_INFINITY;
+		for (int ring = 0; ring < Math.max(columns, rows); ring++) {
+			for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+				// the whole row on the top and bottom edges of the ring, only both ends in between
+				int step = ring == 0 || r == row - ring || r == row + ring ? 1 : 2 * ring;
+				for (int c = column - ring; c <= column + ring; c += step) {
+					if (c < 0 || c >= columns) continue;
+					int cell = r * columns + c;
+					for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+						int z = cellZones[i];
+						if (zoneMeasured[z] == generation) continue;
+						zoneMeasured[z] = generation;
+						best = Math.min(best, signedDistance(z, x, y, best));
+					}
+				}
+			}
+			// the zones not measured yet only overlap cells outside this ring, which are at least this far
+			double bound = Math.min(Math.hypot(outsideX + ring * cellSize, outsideY), Math.hypot(outsideX, outsideY + ring * cellSize));
+			if (best <= bound) break;
+		}
+		return (float) best;
+	}
+
+	// @param best distance found so far, polygons that can't beat it are only measured by their bounding circle
+	private double signedDistance(int z, double x, double y, double best) {
+		// bounding circle gives a lower bound both inside and outside
+		double d = Math.hypot(x - centerX[z], y - centerY[z]) - radius[z];
+		if (vertexStart[z] < 0 || d >= best) return d;
+		double edge = distanceToEdges(z, x, y);
+		return insidePolygon(z, x, y) ? -edge : edge;
+	}
+
+	private boolean insidePolygon(int z, double x, double y) {
+		boolean inside = false;
+		for (int i = vertexStart[z], j = vertexEnd[z] - 1; i < vertexEnd[z]; j = i++) {
+			if ((ys[i] > y) != (ys[j] > y) && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) inside = !inside;
+		}
+		return inside;
+	}
+
+	private double distanceToEdges(int z, double x, double y) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = vertexStart[z], j = vertexEnd[z] - 1; i < vertexEnd[z]; j = i++) {
+			double ex = xs[i] - xs[j], ey = ys[i] - ys[j];
+			double lengthSquared = ex * ex + ey * ey;
+			double t = lengthSquared == 0 ? 0 : ((x - xs[j]) * ex + (y - ys[j]) * ey) / lengthSquared;
+			t = Math.max(0, Math.min(1, t));
+			double dx = x - (xs[j] + t * ex), dy = y - (ys[j] + t * ey);
+			best = Math.min(best, dx * dx + dy * dy);
+		}
+		return Math.sqrt(best);
+	}
+}
@@ -13,7 +13,7 @@
 package com.quuppa.tag;
 
 public enum IntentAction {
-	QT_SYSTEM_ERROR, QT_SYSTEM_EVENT, QT_SCHEDULE_NOT_ENABLED, QT_BLE_NOT_ENABLED, QT_MOVING, QT_STATIONARY, QT_STARTED, QT_STOPPED, QT_STATIONARY_CHECK, QT_RESTART, QT_ACTIVE_ONLY_CHANGED;
+	QT_SYSTEM_ERROR, QT_SYSTEM_EVENT, QT_SCHEDULE_NOT_ENABLED, QT_BLE_NOT_ENABLED, QT_MOVING, QT_STATIONARY, QT_STARTED, QT_STOPPED, QT_STATIONARY_CHECK, QT_RESTART, QT_ACTIVE_ONLY_CHANGED, QT_RULE_CHECK, QT_SCHEDULE_CHECK, QT_ARBITRATION_CHECK, QT_LOCATION_CHECK;
 	
 	public String fullyQualifiedName() {
 		return IntentAction.class.getName() + "." + name();
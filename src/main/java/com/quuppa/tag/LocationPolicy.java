@@ -0,0 +1,114 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import android.location.Location;
+
+/**
+ * Decides how often location updates are needed for geofence gating. The closer the device is to the nearest fence boundary
+ * and the faster it moves, the more often we ask for a fix. Far away from any boundary, or when the motion detector says the
+ * device is stationary, there's no point in polling at a fixed rate. Intervals are quantized to powers of two of the minimum
+ * interval so that small changes in distance or speed don't re-register the request all the time.
+ */
+final class LocationPolicy {
+	static final long MIN_INTERVAL_MS = 10000L;
+	static final long MAX_INTERVAL_MS = 320000L;
+	// Assume at least a brisk walking speed so that a momentarily slow device doesn't stop polling
+	static final float MIN_SPEED_MPS = 1.5f;
+	static final float MAX_MIN_DISTANCE_METERS = 250f;
+	private static final float SPEED_SMOOTHING = 0.5f;
+	private static final double METERS_PER_DEGREE = 111195.0;
+
+	private long intervalMs;
+	private float minDistanceMeters;
+	private boolean suspended;
+	private boolean requested;
+
+	private float speed;
+	private double lastLat;
+	private double lastLon;
+	private long lastFixTime;
+
+	/** Updates the speed estimate from a new fix, prefers the speed reported by the provider */
+	void onLocation(Location location) {
+		long time = location.getTime();
+		float fixSpeed;
+		if (location.hasSpeed()) fixSpeed = location.getSpeed();
+		else if (lastFixTime > 0 && time > lastFixTime) {
+			double dy = (location.getLatitude() - lastLat) * METERS_PER_DEGREE;
+			double dx = (location.getLongitude() - lastLon) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lastLat));
+			fixSpeed = (float) (Math.sqrt(dx * dx + dy * dy) * 1000 / (time - lastFixTime));
+		}
+		else fixSpeed = speed;
+		speed = speed * SPEED_SMOOTHING + fixSpeed * (1 - SPEED_SMOOTHING);
+		lastLat = location.getLatitude();
+		lastLon = location.getLongitude();
+		lastFixTime = time;
+	}
+
+	/**
+	 * @param distanceToBoundary distance in meters to the nearest fence boundary (sign is ignored), NaN if unknown
+	 * @param stationary true if the motion detector is running and says the device is stationary
+	 * @return true if the location request needs to be changed
+	 */
+	boolean update(float distanceToBoundary, boolean stationary) {
+		if (stationary) {
+			if (suspended) return false;
+			suspended = true;
+			requested = false;
+			return true;
+		}
+
+		long newInterval = MIN_INTERVAL_MS;
+		float newMinDistance = 0;
+		if (!Float.isNaN(distanceToBoundary)) {
+			float distance = Math.abs(distanceToBoundary);
+			// ask for a fix at least twice before we could possibly cross the boundary
+			long timeToBoundary = (long) (distance / getReachSpeed() * 1000 / 2);
+			while (newInterval * 2 <= Math.min(timeToBoundary, MAX_INTERVAL_MS)) newInterval *= 2;
+			newMinDistance = Math.min(MAX_MIN_DISTANCE_METERS, distance / 4);
+			// quantize as well, we only care about the order of magnitude
+			newMinDistance = newMinDistance < 10 ? 0 : (float) Math.pow(2, Math.floor(Math.log(newMinDistance) / Math.log(2)));
+		}
+
+		if (requested && !suspended && newInterval == intervalMs && newMinDistance == minDistanceMeters) return false;
+		intervalMs = newInterval;
+		minDistanceMeters = newMinDistance;
+		suspended = false;
+		requested = true;
+		return true;
+	}
+
+	/** Forget the current request, e.g. after the listener has been removed */
+	void reset() {
+		requested = false;
+		suspended = false;
+	}
+
+	/** @return the smoothed speed in m/s, at least {@link #MIN_SPEED_MPS}, to bound how far the device can have moved */
+	float getReachSpeed() {
+		return Math.max(speed, MIN_SPEED_MPS);
+	}
+
+	boolean isSuspended() {
+		return suspended;
+	}
+
+	long getIntervalMs() {
+		return intervalMs;
+	}
+
+	float getMinDistanceMeters() {
+		return minDistanceMeters;
+	}
+}
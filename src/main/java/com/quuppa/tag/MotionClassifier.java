@@ -0,0 +1,273 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+/**
+ * Classifies accelerometer samples into still, handheld, walking and vehicle motion using windowed features:
+ * <ul>
+ * <li>variance of the acceleration magnitude</li>
+ * <li>step periodicity, the strongest Goertzel filter response in the 1-3 Hz step frequency band relative to the total variance</li>
+ * <li>sustained acceleration, the magnitude of the mean linear acceleration vector over the window. Steps and hand movements
+ * average out, accelerating or braking in a vehicle doesn't</li>
+ * </ul>
+ * Samples go to fixed size ring buffers and the features are computed every {@link #HOP} samples, so memory use is constant and
+ * nothing is allocated per sample. The sample rate is measured from the event timestamps, the step filters are spaced by the
+ * frequency resolution of the window at that rate and frequencies above its Nyquist frequency are skipped.
+ *
+ * Tilting the phone looks like sustained acceleration until the slow gravity estimate has caught up. A faster orientation estimate
+ * tells most tilts apart: a hand turns the phone faster, and further, than braking or cornering tilts the apparent gravity in a
+ * vehicle. On such a reorientation the gravity estimate follows the new orientation until it has settled and the window is refilled
+ * before sustained acceleration counts again. A slow, small tilt can't be told apart from acceleration, but it is a single step
+ * while a vehicle speeds up, brakes and turns, so vehicle motion is only entered on a second episode of sustained acceleration within
+ * {@link #VEHICLE_ENTRY_NS}. It is then kept while the motion stays smooth, since a vehicle cruising at a constant speed only shows up
+ * as low level vibration, but for at most {@link #VEHICLE_HOLD_NS} without new sustained acceleration.
+ */
+final class MotionClassifier {
+	enum MotionClass {
+		STILL(0), HANDHELD(0), WALKING(0),
+		// locators don't cover roads anyway, advertise at a quarter of the moving rate
+		VEHICLE(2);
+
+		/** Advertising interval while moving is shifted left by this */
+		final int intervalShift;
+
+		MotionClass(int intervalShift) {
+			this.intervalShift = intervalShift;
+		}
+	}
+
+	static final int WINDOW = 64;
+	static final int HOP = 16;
+	private static final int MIN_SAMPLES = 32;
+	// Hz, a filter responds within about sampleRate / WINDOW of its frequency, so they are spaced closer than that
+	private static final float MIN_STEP_FREQUENCY = 1.0f;
+	private static final float MAX_STEP_FREQUENCY = 3.0f;
+	private static final float MAX_STEP_FREQUENCY_SPACING = 0.25f;
+	// (m/s^2)^2
+	private static final float STILL_VARIANCE = 0.01f;
+	private static final float WALKING_VARIANCE = 0.5f;
+	private static final float VEHICLE_MAX_VARIANCE = 0.15f;
+	private static final float STEP_PERIODICITY = 0.35f;
+	// m/s^2
+	private static final float SUSTAINED_ACCELERATION = 0.4f;
+	// about 0.3 g, harder than normal braking or cornering, tilts the apparent gravity by 17 degrees
+	private static final float MAX_VEHICLE_ACCELERATION = 3f;
+	private static final float GRAVITY_TIME_CONSTANT_S = 10f;
+	private static final float ORIENTATION_TIME_CONSTANT_S = 1f;
+	// rad/s, braking from zero to 0.3 g within a second turns the apparent gravity at most this fast
+	private static final float REORIENTATION_RATE = (float) Math.toRadians(20);
+	private static final long VEHICLE_HOLD_NS = 120_000_000_000L;
+	// a slow tilt still looks like one episode of sustained acceleration, a vehicle speeds up, brakes and turns within this
+	private static final long VEHICLE_ENTRY_NS = 120_000_000_000L;
+	// the gravity estimate follows the fast orientation estimate this long after a reorientation, until it has settled
+	private static final long REORIENTATION_SETTLE_NS = (long) (3 * ORIENTATION_TIME_CONSTANT_S * 1e9);
+
+	private final float[] magnitudes = new float[WINDOW];
+	private final float[] linearX = new float[WINDOW];
+	private final float[] linearY = new float[WINDOW];
+	private final float[] linearZ = new float[WINDOW];
+	private int head;
+	private int count;
+	private int sinceEvaluation;
+
+	private float gravityX, gravityY, gravityZ;
+	private float orientationX, orientationY, orientationZ;
+	// samples since the gravity estimate last followed a new orientation, and until when it does
+	private int sinceReorientation;
+	private long reorientationUntilNs;
+	// when sustained acceleration was last seen in a vehicle, 0 if not since the last reorientation
+	private long vehicleEvidenceNs;
+	// whether sustained acceleration is ongoing, whether it followed an earlier episode within VEHICLE_ENTRY_NS and when that ended
+	private boolean accelerationEpisode;
+	private boolean repeatedAcceleration;
+	private long accelerationEpisodeEndNs;
+	private long lastTimestampNs;
+	private int gravitySamples;
+	private float sampleRate;
+
+	private MotionClass motionClass = MotionClass.STILL;
+	private float confidence;
+	// samples since the class was last evaluated to something else than STILL
+	private int stillSamples;
+	private float variance;
+
+	/**
+	 * @param timestampNs event timestamp in nanoseconds
+	 * @return true if the window was evaluated with this sample
+	 */
+	boolean onSample(float x, float y, float z, long timestampNs) {
+		if (lastTimestampNs == 0 || timestampNs > lastTimestampNs) {
+			float dt = lastTimestampNs == 0 ? 0 : (timestampNs - lastTimestampNs) / 1e9f;
+			if (dt > 0) sampleRate = sampleRate == 0 ? 1 / dt : sampleRate * 0.95f + 0.05f / dt;
+			// slow low pass, the gravity estimate follows orientation changes but not acceleration. Plain average until
+			// there are enough samples so that the first sample doesn't bias it
+			float alpha = Math.max(dt / (GRAVITY_TIME_CONSTANT_S + dt), 1f / ++gravitySamples);
+			gravityX += alpha * (x - gravityX);
+			gravityY += alpha * (y - gravityY);
+			gravityZ += alpha * (z - gravityZ);
+			// fast low pass, follows the orientation within a second but still averages out steps and tremor
+			float orientationAlpha = Math.max(dt / (ORIENTATION_TIME_CONSTANT_S + dt), 1f / gravitySamples);
+			float previousX = orientationX, previousY = orientationY, previousZ = orientationZ;
+			orientationX += orientationAlpha * (x - orientationX);
+			orientationY += orientationAlpha * (y - orientationY);
+			orientationZ += orientationAlpha * (z - orientationZ);
+			if (dt > 0 && isReorientation(previousX, previousY, previousZ, dt)) reorientationUntilNs = timestampNs + REORIENTATION_SETTLE_NS;
+			if (timestampNs < reorientationUntilNs) {
+				gravityX = orientationX;
+				gravityY = orientationY;
+				gravityZ = orientationZ;
+				sinceReorientation = 0;
+				vehicleEvidenceNs = 0;
+				accelerationEpisode = false;
+				accelerationEpisodeEndNs = 0;
+			}
+		}
+		lastTimestampNs = timestampNs;
+		if (sinceReorientation < WINDOW) sinceReorientation++;
+		// confidence is 0 until the first evaluation
+		if (motionClass == MotionClass.STILL && confidence > 0 && stillSamples < WINDOW) stillSamples++;
+
+		magnitudes[head] = (float) Math.sqrt(x * x + y * y + z * z);
+		linearX[head] = x - gravityX;
+		linearY[head] = y - gravityY;
+		linearZ[head] = z - gravityZ;
+		head = (head + 1) % WINDOW;
+		if (count < WINDOW) count++;
+		if (++sinceEvaluation < HOP || count < MIN_SAMPLES) return false;
+		sinceEvaluation = 0;
+		evaluate();
+		return true;
+	}
+
+	// Turned faster or further than a vehicle's acceleration can tilt the apparent gravity
+	private boolean isReorientation(float previousX, float previousY, float previousZ, float dt) {
+		float crossX = previousY * orientationZ - previousZ * orientationY;
+		float crossY = previousZ * orientationX - previousX * orientationZ;
+		float crossZ = previousX * orientationY - previousY * orientationX;
+		float dot = previousX * orientationX + previousY * orientationY + previousZ * orientationZ;
+		double angle = Math.atan2(Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ), dot);
+		if (angle / dt > REORIENTATION_RATE) return true;
+		float dx = orientationX - gravityX, dy = orientationY - gravityY, dz = orientationZ - gravityZ;
+		return dx * dx + dy * dy + dz * dz > MAX_VEHICLE_ACCELERATION * MAX_VEHICLE_ACCELERATION;
+	}
+
+	private void evaluate() {
+		int start = (head - count + WINDOW) % WINDOW;
+		float mean = 0, meanX = 0, meanY = 0, meanZ = 0;
+		for (int i = 0, j = start; i < count; i++, j = (j + 1) % WINDOW) {
+			mean += magnitudes[j];
+			meanX += linearX[j];
+			meanY += linearY[j];
+			meanZ += linearZ[j];
+		}
+		mean /= count;
+		float sustained = (float) Math.sqrt(meanX * meanX + meanY * meanY + meanZ * meanZ) / count;
+		variance = 0;
+		for (int i = 0, j = start; i < count; i++, j = (j + 1) % WINDOW) {
+			float d = magnitudes[j] - mean;
+			variance += d * d;
+		}
+		variance /= count;
+
+		// samples from before the latest reorientation are measured against the old gravity
+		boolean accelerating = sinceReorientation >= WINDOW && sustained > SUSTAINED_ACCELERATION;
+		if (accelerating && !accelerationEpisode) 
+			repeatedAcceleration = accelerationEpisodeEndNs != 0 && lastTimestampNs - accelerationEpisodeEndNs < VEHICLE_ENTRY_NS;
+		if (!accelerating && accelerationEpisode) accelerationEpisodeEndNs = lastTimestampNs;
+		accelerationEpisode = accelerating;
+
+		// A sinusoid with variance v gives a Goertzel power of about count^2 * v / 2
+		float periodicity = 0;
+		if (variance > 0 && sampleRate > 0) {
+			float spacing = Math.min(MAX_STEP_FREQUENCY_SPACING, sampleRate / WINDOW);
+			for (float frequency = MIN_STEP_FREQUENCY; frequency <= MAX_STEP_FREQUENCY; frequency += spacing) {
+				if (frequency > sampleRate * 0.45f) break;
+				float coefficient = (float) (2 * Math.cos(2 * Math.PI * frequency / sampleRate));
+				float s1 = 0, s2 = 0;
+				for (int i = 0, j = start; i < count; i++, j = (j + 1) % WINDOW) {
+					float s = magnitudes[j] - mean + coefficient * s1 - s2;
+					s2 = s1;
+					s1 = s;
+				}
+				float power = s1 * s1 + s2 * s2 - coefficient * s1 * s2;
+				periodicity = Math.max(periodicity, power / (count * count * variance / 2));
+			}
+		}
+
+		if (variance < STILL_VARIANCE) {
+			motionClass = MotionClass.STILL;
+			confidence = 0.5f + 0.5f * (1 - variance / STILL_VARIANCE);
+		}
+		else if (periodicity > STEP_PERIODICITY && variance > WALKING_VARIANCE) {
+			motionClass = MotionClass.WALKING;
+			confidence = Math.min(1, 0.5f + periodicity / 2);
+		}
+		else if (variance < VEHICLE_MAX_VARIANCE && periodicity < STEP_PERIODICITY 
+				&& accelerating && (repeatedAcceleration || motionClass == MotionClass.VEHICLE)) {
+			motionClass = MotionClass.VEHICLE;
+			vehicleEvidenceNs = lastTimestampNs;
+			confidence = Math.min(1, 0.5f + 0.5f * Math.max(sustained / (2 * SUSTAINED_ACCELERATION), 1 - variance / VEHICLE_MAX_VARIANCE));
+		}
+		else if (variance < VEHICLE_MAX_VARIANCE && periodicity < STEP_PERIODICITY && motionClass == MotionClass.VEHICLE 
+				&& vehicleEvidenceNs != 0 && lastTimestampNs - vehicleEvidenceNs < VEHICLE_HOLD_NS) {
+			motionClass = MotionClass.VEHICLE;
+			confidence = Math.min(1, 0.5f + 0.5f * Math.max(sustained / (2 * SUSTAINED_ACCELERATION), 1 - variance / VEHICLE_MAX_VARIANCE));
+		}
+		else {
+			motionClass = MotionClass.HANDHELD;
+			confidence = 0.5f + 0.5f * Math.max(0, 1 - periodicity / STEP_PERIODICITY);
+		}
+		if (motionClass != MotionClass.STILL) stillSamples = 0;
+	}
+
+	MotionClass getMotionClass() {
+		return motionClass;
+	}
+
+	/** @return true if the class has been STILL for at least a full window of samples, so none of them is from motion */
+	boolean isSettledStill() {
+		return motionClass == MotionClass.STILL && stillSamples >= WINDOW;
+	}
+
+	/** @return confidence of the current class between 0.5 and 1 */
+	float getConfidence() {
+		return confidence;
+	}
+
+	/** @return variance of the acceleration magnitude in the latest window */
+	float getVariance() {
+		return variance;
+	}
+
+	float getSampleRate() {
+		return sampleRate;
+	}
+
+	/** Start over, e.g. after the sensor has been unregistered */
+	void reset() {
+		head = 0;
+		count = 0;
+		sinceEvaluation = 0;
+		lastTimestampNs = 0;
+		gravitySamples = 0;
+		sinceReorientation = 0;
+		reorientationUntilNs = 0;
+		vehicleEvidenceNs = 0;
+		accelerationEpisode = false;
+		accelerationEpisodeEndNs = 0;
+		sampleRate = 0;
+		motionClass = MotionClass.STILL;
+		confidence = 0;
+		stillSamples = 0;
+	}
+}
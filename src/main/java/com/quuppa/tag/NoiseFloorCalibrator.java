@@ -0,0 +1,79 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+/**
+ * Estimates the accelerometer noise floor of the device from the shake detector output while stationary. The latest samples are kept
+ * in a fixed size ring buffer, and the noise floor is a high percentile of their absolute values, so a few real movements among them
+ * don't skew it. The percentile is found with quickselect on a preallocated copy, nothing is allocated after construction.
+ *
+ * The threshold is the noise floor times a safety margin, bounded so that a very quiet sensor doesn't trigger on every touch.
+ */
+final class NoiseFloorCalibrator {
+	static final int CAPACITY = 256;
+	private static final float PERCENTILE = 0.95f;
+	private static final float SAFETY_MARGIN = 3f;
+	static final float MIN_THRESHOLD = 0.1f;
+	static final float MAX_THRESHOLD = 2f;
+
+	private final float[] samples = new float[CAPACITY];
+	private final float[] scratch = new float[CAPACITY];
+	private int head;
+	private int count;
+	private int sinceCalibration;
+
+	/** @return true once a full buffer of new samples has been collected since the previous calibration */
+	boolean add(float value) {
+		samples[head] = Math.abs(value);
+		head = (head + 1) % CAPACITY;
+		if (count < CAPACITY) count++;
+		return ++sinceCalibration >= CAPACITY;
+	}
+
+	/** @return the calibrated shake threshold, or NaN if there are not enough samples yet */
+	float calibrate() {
+		if (count < CAPACITY) return Float.NaN;
+		sinceCalibration = 0;
+		System.arraycopy(samples, 0, scratch, 0, CAPACITY);
+		float noiseFloor = select(scratch, (int) (PERCENTILE * (CAPACITY - 1)));
+		return Math.max(MIN_THRESHOLD, Math.min(MAX_THRESHOLD, noiseFloor * SAFETY_MARGIN));
+	}
+
+	void reset() {
+		head = 0;
+		count = 0;
+		sinceCalibration = 0;
+	}
+
+	// Hoare's quickselect, reorders the array and returns the k:th smallest value
+	private static float select(float[] values, int k) {
+		int left = 0, right = values.length - 1;
+		while (left < right) {
+			float pivot = values[(left + right) >>> 1];
+			int i = left, j = right;
+			while (i <= j) {
+				while (values[i] < pivot) i++;
+				while (values[j] > pivot) j--;
+				if (i <= j) {
+					float tmp = values[i];
+					values[i++] = values[j];
+					values[j--] = tmp;
+				}
+			}
+			if (k <= j) right = j;
+			else if (k >= i) left = i;
+			else break;
+		}
+		return values[k];
+	}
+}
@@ -0,0 +1,151 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Weekly operating windows, e.g. "MON-FRI 08:00-18:00; SAT 10:00-14:00". Days are given as a single day, a range (may wrap, e.g.
+ * FRI-MON) or a comma separated list of those. A window whose end is not after its start continues over midnight to the next day,
+ * "00:00-24:00" is the whole day. Times are local times in the schedule's time zone, so daylight saving time changes are followed.
+ *
+ * The windows are flattened into a bit per minute of the week, so overlapping and adjacent windows merge and only real
+ * open/closed transitions are reported as boundaries.
+ */
+final class OperatingSchedule {
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+	private static final String[] DAYS = { "MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN" };
+
+	private final ZoneId zone;
+	private final BitSet open = new BitSet(MINUTES_PER_WEEK);
+	// minutes of the week where open changes, ascending
+	private final int[] boundaries;
+
+	/**
+	 * @param spec the windows
+	 * @param timeZone time zone id, null for the system default
+	 * @return the schedule, or null if spec is null or empty
+	 * @throws IllegalArgumentException if the spec or the time zone is malformed
+	 */
+	static OperatingSchedule parse(String spec, String timeZone) {
+		if (spec == null || spec.trim().isEmpty()) return null;
+		return new OperatingSchedule(spec, parseTimeZone(timeZone));
+	}
+
+	/**
+	 * @param timeZone time zone id, null for the system default
+	 * @throws IllegalArgumentException if the time zone is malformed
+	 */
+	static ZoneId parseTimeZone(String timeZone) {
+		try {
+			return timeZone == null ? ZoneId.systemDefault() : ZoneId.of(timeZone);
+		} catch (DateTimeException e) {
+			throw new IllegalArgumentException("Invalid time zone '" + timeZone + "'", e);
+		}
+	}
+
+	private OperatingSchedule(String spec, ZoneId zone) {
+		this.zone = zone;
+		for (String window : spec.split(";")) {
+			window = window.trim();
+			if (window.isEmpty()) continue;
+			String[] parts = window.split("\\s+");
+			if (parts.length != 2) throw new IllegalArgumentException("Expected 'DAYS HH:MM-HH:MM' in operating window '" + window + "'");
+			String[] times = parts[1].split("-");
+			if (times.length != 2) throw new IllegalArgumentException("Invalid time range in operating window '" + window + "'");
+			int start = parseTime(times[0], window);
+			int end = parseTime(times[1], window);
+			// ends on the next day
+			if (end <= start) end += MINUTES_PER_DAY;
+			boolean[] days = parseDays(parts[0], window);
+			for (int day = 0; day < 7; day++) {
+				if (!days[day]) continue;
+				for (int minute = day * MINUTES_PER_DAY + start; minute < day * MINUTES_PER_DAY + end; minute++) open.set(minute % MINUTES_PER_WEEK);
+			}
+		}
+
+		int count = 0;
+		for (int minute = 0; minute < MINUTES_PER_WEEK; minute++) if (isBoundary(minute)) count++;
+		boundaries = new int[count];
+		count = 0;
+		for (int minute = 0; minute < MINUTES_PER_WEEK; minute++) if (isBoundary(minute)) boundaries[count++] = minute;
+	}
+
+	private boolean isBoundary(int minute) {
+		return open.get(minute) != open.get((minute + MINUTES_PER_WEEK - 1) % MINUTES_PER_WEEK);
+	}
+
+	private static int parseTime(String time, String window) {
+		String[] parts = time.split(":");
+		try {
+			if (parts.length == 2) {
+				int hours = Integer.parseInt(parts[0]);
+				int minutes = Integer.parseInt(parts[1]);
+				if (hours >= 0 && minutes >= 0 && minutes < 60 && hours * 60 + minutes <= MINUTES_PER_DAY) return hours * 60 + minutes;
+			}
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Invalid time '" + time + "' in operating window '" + window + "'");
+	}
+
+	private static boolean[] parseDays(String spec, String window) {
+		boolean[] days = new boolean[7];
+		for (String range : spec.split(",")) {
+			String[] ends = range.split("-");
+			if (ends.length > 2) throw new IllegalArgumentException("Invalid day range '" + range + "' in operating window '" + window + "'");
+			int first = parseDay(ends[0], window);
+			int last = ends.length == 2 ? parseDay(ends[1], window) : first;
+			for (int day = first;; day = (day + 1) % 7) {
+				days[day] = true;
+				if (day == last) break;
+			}
+		}
+		return days;
+	}
+
+	private static int parseDay(String day, String window) {
+		for (int i = 0; i < DAYS.length; i++) if (DAYS[i].equalsIgnoreCase(day)) return i;
+		throw new IllegalArgumentException("Invalid day '" + day + "' in operating window '" + window + "'");
+	}
+
+	private static int minuteOfWeek(ZonedDateTime time) {
+		return (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+	}
+
+	boolean isOpen(long timeMillis) {
+		return open.get(minuteOfWeek(Instant.ofEpochMilli(timeMillis).atZone(zone)));
+	}
+
+	/** @return time in milliseconds of the next change between open and closed after the given time, or -1 if it never changes */
+	long getNextBoundary(long timeMillis) {
+		if (boundaries.length == 0) return -1;
+		ZonedDateTime time = Instant.ofEpochMilli(timeMillis).atZone(zone);
+		int minute = minuteOfWeek(time);
+		int next = boundaries[0] + MINUTES_PER_WEEK;
+		for (int boundary : boundaries) if (boundary > minute) {
+			next = boundary;
+			break;
+		}
+		// count in local time, if the boundary falls into a daylight saving gap it moves to the end of the gap
+		LocalDateTime local = time.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(next - minute);
+		long boundaryMillis = ZonedDateTime.of(local, zone).toInstant().toEpochMilli();
+		// the wall clock may go back over the boundary on a daylight saving change, check again in a minute
+		return boundaryMillis > timeMillis ? boundaryMillis : timeMillis + 60000L;
+	}
+}
@@ -0,0 +1,77 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+
+/**
+ * Selects the {@link PowerTier} from the battery state. Boost while charging, normal in the normal range and increasingly
+ * aggressive saving below the saver and critical levels. A saving tier is only left once the level is a few percent above its
+ * threshold, so a level reading bouncing around the threshold doesn't reconfigure advertising back and forth.
+ */
+final class PowerPolicy {
+	private static final int LEVEL_HYSTERESIS = 3;
+
+	private int saverLevel;
+	private int criticalLevel;
+	private PowerTier tier = PowerTier.NORMAL;
+	private int level = 100;
+	private boolean charging;
+
+	PowerPolicy(int saverLevel, int criticalLevel) {
+		configure(saverLevel, criticalLevel);
+	}
+
+	void configure(int saverLevel, int criticalLevel) {
+		this.saverLevel = saverLevel;
+		this.criticalLevel = criticalLevel;
+	}
+
+	/**
+	 * @param intent ACTION_BATTERY_CHANGED intent, sticky or broadcast
+	 * @return true if the tier changed
+	 */
+	boolean update(Intent intent) {
+		int rawLevel = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+		level = rawLevel < 0 || scale <= 0 ? 100 : rawLevel * 100 / scale;
+		charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+		return reevaluate();
+	}
+
+	/** @return true if the tier changed, e.g. after changing the thresholds */
+	boolean reevaluate() {
+		PowerTier newTier;
+		if (charging) newTier = PowerTier.CHARGING;
+		else if (level < criticalLevel || tier == PowerTier.CRITICAL && level < criticalLevel + LEVEL_HYSTERESIS) newTier = PowerTier.CRITICAL;
+		else if (level < saverLevel || (tier == PowerTier.SAVER || tier == PowerTier.CRITICAL) && level < saverLevel + LEVEL_HYSTERESIS) newTier = PowerTier.SAVER;
+		else newTier = PowerTier.NORMAL;
+		if (newTier == tier) return false;
+		tier = newTier;
+		return true;
+	}
+
+	PowerTier getTier() {
+		return tier;
+	}
+
+	/** @return battery level in percent from the latest update */
+	int getLevel() {
+		return level;
+	}
+
+	boolean isCharging() {
+		return charging;
+	}
+}
@@ -0,0 +1,52 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.hardware.SensorManager;
+
+/**
+ * Bundles of advertising and motion detection settings selected by battery state. TX power and stationary threshold are caps,
+ * the configured values are used when lower. Sensor delay is either one of the SensorManager.SENSOR_DELAY_ constants or a
+ * sampling period in microseconds.
+ */
+enum PowerTier {
+	// on a charger we can afford a faster stationary rate
+	CHARGING(AdvertisingSetParameters.INTERVAL_LOW, AdvertisingSetParameters.INTERVAL_MEDIUM, AdvertisingSetParameters.TX_POWER_HIGH,
+			AdvertisingSetParameters.TX_POWER_HIGH, SensorManager.SENSOR_DELAY_NORMAL, Long.MAX_VALUE),
+	NORMAL(AdvertisingSetParameters.INTERVAL_LOW, AdvertisingSetParameters.INTERVAL_HIGH, AdvertisingSetParameters.TX_POWER_HIGH,
+			AdvertisingSetParameters.TX_POWER_HIGH, SensorManager.SENSOR_DELAY_NORMAL, Long.MAX_VALUE),
+	// a stationary tag is seen by the same locators over and over, it can do with less power
+	SAVER(AdvertisingSetParameters.INTERVAL_MEDIUM, AdvertisingSetParameters.INTERVAL_HIGH, AdvertisingSetParameters.TX_POWER_MEDIUM,
+			AdvertisingSetParameters.TX_POWER_LOW, SensorManager.SENSOR_DELAY_NORMAL, 10000L),
+	// ~1.6 Hz when moving, 0.1 Hz when stationary. Still tracked, just coarser, for as long as possible
+	CRITICAL(AdvertisingSetParameters.INTERVAL_HIGH, 16000, AdvertisingSetParameters.TX_POWER_LOW, AdvertisingSetParameters.TX_POWER_LOW, 
+			400000, 5000L);
+
+	final int movingInterval;
+	final int stationaryInterval;
+	final int maxMovingTxPower;
+	final int maxStationaryTxPower;
+	final int sensorDelay;
+	final long maxStationaryThresholdMs;
+
+	PowerTier(int movingInterval, int stationaryInterval, int maxMovingTxPower, int maxStationaryTxPower, int sensorDelay, 
+			long maxStationaryThresholdMs) {
+		this.movingInterval = movingInterval;
+		this.stationaryInterval = stationaryInterval;
+		this.maxMovingTxPower = maxMovingTxPower;
+		this.maxStationaryTxPower = maxStationaryTxPower;
+		this.sensorDelay = sensorDelay;
+		this.maxStationaryThresholdMs = maxStationaryThresholdMs;
+	}
+}
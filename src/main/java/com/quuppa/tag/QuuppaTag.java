@@ -46,9 +46,33 @@ public abstract class QuuppaTag {
     public static final String PREFS_BACKGROUND_MODE = "BACKGROUND_MODE";
 	public static final String PREFS_NOTIFIED_ACTIVITY_CLASSNAME = "NOTIFIED_ACTIVITY_CLASSNAME";
 	public static final String PREFS_ADVERTISINGSET_TX_POWER = "ADV_TX_POWER";
+	public static final String PREFS_ADVERTISINGSET_STATIONARY_TX_POWER = "ADV_STATIONARY_TX_POWER";
 	public static final String PREFS_SHAKE_THRESHOLD = "SHAKE_THRESHOLD";
     public static final String PREFS_SELECTED_LOCATION = "SELECTED_LOCATION";
     public static final String PREFS_SELECTED_WIFI = "SELECTED_WIFI";
+    public static final String PREFS_SELECTED_WIFI_SSIDS = "SELECTED_WIFI_SSIDS";
+    public static final String PREFS_SELECTED_WIFI_BSSIDS = "SELECTED_WIFI_BSSIDS";
+    public static final String PREFS_GEOFENCE_ZONES = "GEOFENCE_ZONES";
+    public static final String PREFS_PASSIVE_LOCATION = "PASSIVE_LOCATION";
+    public static final String PREFS_NETWORK_DEBOUNCE_MS = "NETWORK_DEBOUNCE_MS";
+    public static final String PREFS_ACTIVATION_RULE = "ACTIVATION_RULE";
+    public static final String PREFS_GEOFENCE_ENTER_MARGIN = "GEOFENCE_ENTER_MARGIN";
+    public static final String PREFS_GEOFENCE_EXIT_MARGIN = "GEOFENCE_EXIT_MARGIN";
+    public static final String PREFS_GATING_ENTER_DWELL_MS = "GATING_ENTER_DWELL_MS";
+    public static final String PREFS_GATING_EXIT_DWELL_MS = "GATING_EXIT_DWELL_MS";
+    public static final String PREFS_WIFI_LOSS_GRACE_MS = "WIFI_LOSS_GRACE_MS";
+    public static final String PREFS_LOCATION_STALENESS_MS = "LOCATION_STALENESS_MS";
+    public static final String PREFS_OPERATING_SCHEDULE = "OPERATING_SCHEDULE";
+    public static final String PREFS_OPERATING_TIME_ZONE = "OPERATING_TIME_ZONE";
+    public static final String PREFS_POWER_SAVER_BATTERY_LEVEL = "POWER_SAVER_BATTERY_LEVEL";
+    public static final String PREFS_POWER_CRITICAL_BATTERY_LEVEL = "POWER_CRITICAL_BATTERY_LEVEL";
+    public static final String PREFS_THERMAL_THROTTLING_STATUS = "THERMAL_THROTTLING_STATUS";
+    public static final String PREFS_MOTION_CONFIRMATION = "MOTION_CONFIRMATION";
+    public static final String PREFS_SHAKE_THRESHOLD_CALIBRATION = "SHAKE_THRESHOLD_CALIBRATION";
+    public static final String PREFS_FLOOR_CHANGE_DETECTION = "FLOOR_CHANGE_DETECTION";
+    public static final String PREFS_ADDITIONAL_TAGS = "ADDITIONAL_TAGS";
+    public static final String PREFS_ONSET_BURST_MS = "ONSET_BURST_MS";
+    public static final String PREFS_ARBITRATION = "ARBITRATION";
 	
     /** Creates a byte array with the given tag ID */
     private static byte[] createQuuppaAddress(String tagID) {
@@ -160,13 +184,34 @@ public abstract class QuuppaTag {
      * @throws QuuppaTagException 
      */
     protected static byte[] createQuuppaDFPacketAdvertiseData(String tagID, DeviceType deviceType, boolean moving) throws QuuppaTagException {
+    	return createQuuppaDFPacketAdvertiseData(tagID, deviceType, moving, AdvertisingSetParameters.TX_POWER_HIGH);
+    }
+    
+    /** Constructs a byte array using the Direction Finding Packet Specification.
+     * Please see the 'Quuppa Tag Emulation for Android Devices' -document for more details.
+     * @param tagID Tag ID to be injected into the packet
+     * @param tagID DeviceType that contains type byte as specified by Quuppa Tag Emulation
+     * @param moving boolean indicating if the device is moving
+     * @param txPower the AdvertisingSetParameters TX power level the packet is advertised with
+     * @return constructed byte array
+     * @throws QuuppaTagException 
+     */
+    protected static byte[] createQuuppaDFPacketAdvertiseData(String tagID, DeviceType deviceType, boolean moving, int txPower) throws QuuppaTagException {
         // Please see the 'Quuppa Tag Emulation for Android Devices' -document for details
 
+    	// Simplified Android emulation payload header, e.g. 0x19 = moving at walking speed + Android high tx power maps to ~0 dBm Quuppa Tag,
+    	// 0x18 = stationary. Same TX power bits as in the generic spec, MEDIUM and LOW are one and two levels down
+    	byte header = (byte) (1 << 4);
+    	if (txPower >= AdvertisingSetParameters.TX_POWER_HIGH) header |= (2 << 2);
+    	else if (txPower >= AdvertisingSetParameters.TX_POWER_MEDIUM) header |= (1 << 2);
+    	// 1-6 Hz at any moving rate, including the 100 ms onset burst
+    	if (moving) header |= 1;
+    	
         byte[] bytes = new byte[]{
                 (byte) 0x01, // Quuppa Packet ID
                 deviceType.type, // Device Type (0x21 = android smartphone, 0x22 = android tablet)
                 // moving ? (byte) 0x1D : (byte) 0x1C, // Simplified Android emulation payload header - 0x1D = moving at walking speed, 0x1C = stationary + reserve for Android max tx power
-                moving ? (byte)	0x19 : (byte) 0x18, // Simplified Android emulation payload header - 0x19 = moving at walking speed, 0x13 = stationary + Android high tx power maps to ~0 dBm Quuppa Tag
+                header,
                 (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06, // Quuppa Address payload, will be replaced shortly...
                 (byte) 0xb4, // checksum, calculated later
                 (byte) 0x67, (byte) 0xF7, (byte) 0xDB, (byte) 0x34, (byte) 0xC4, (byte) 0x03, (byte) 0x8E, (byte) 0x5C, (byte) 0x0B, (byte) 0xAA, (byte) 0x97, (byte) 0x30, (byte) 0x56, (byte) 0xE6 // DF field, 14 octets
@@ -236,6 +281,26 @@ public abstract class QuuppaTag {
 		editor.commit();
 	}
 	
+	public static int getStationaryAdvertisingSetTxPower(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getInt(PREFS_ADVERTISINGSET_STATIONARY_TX_POWER, getAdvertisingSetTxPower(context));
+	}
+	
+	/**
+	 * Set the TX power used while stationary, by default the same as {@link #setAdvertisingSetTxPower(Context, int)}. The power tier
+	 * may lower it further. The TX power bits of the payload header follow the power actually used.
+	 * @param context
+	 * @param advertisingSetTxPower one of AdvertisingSetParameters.TX_POWER_HIGH, _MEDIUM, _LOW or _ULTRA_LOW
+	 */
+	public static void setStationaryAdvertisingSetTxPower(Context context, int advertisingSetTxPower) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+		if (!availableTxPowers.contains(advertisingSetTxPower)) advertisingSetTxPower = AdvertisingSetParameters.TX_POWER_HIGH;
+		
+		Editor editor = sharedPrefs.edit();
+		editor.putInt(PREFS_ADVERTISINGSET_STATIONARY_TX_POWER, advertisingSetTxPower);
+		editor.commit();
+	}
+	
 	public static final float DEFAULT_SHAKE_THRESHOLD = 0.3f;
 	
 	public static float getShakeThreshold(Context context) {
@@ -255,6 +320,25 @@ public abstract class QuuppaTag {
 		editor.putFloat(PREFS_SHAKE_THRESHOLD, shakeThreshold);
 		editor.commit();
 	}
+	
+	public static boolean isShakeThresholdCalibration(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getBoolean(PREFS_SHAKE_THRESHOLD_CALIBRATION, false);
+	}
+	
+	/**
+	 * Set whether the shake threshold is calibrated automatically from the accelerometer noise floor of the device while it's 
+	 * stationary. The calibrated threshold is stored as the shake threshold and recalibrated periodically.
+	 * @param context
+	 * @param calibration true to calibrate the shake threshold automatically
+	 */
+	public static void setShakeThresholdCalibration(Context context, boolean calibration) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+		
+		Editor editor = sharedPrefs.edit();
+		editor.putBoolean(PREFS_SHAKE_THRESHOLD_CALIBRATION, calibration);
+		editor.commit();
+	}
     
 	public static DeviceType getOrInitDeviceType(Context context) {
         SharedPreferences sharedPrefs = context.getSharedPreferences(
@@ -299,6 +383,368 @@ public abstract class QuuppaTag {
 		editor.putString(QuuppaTag.PREFS_SELECTED_WIFI, selectedWifi);
 		editor.commit();
 	}
+	
+    public static Set<String> getSelectedWifiSsids(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getStringSet(QuuppaTag.PREFS_SELECTED_WIFI_SSIDS, null);
+    }
+    
+	/**
+	 * Set the Wi-Fi networks the service is active in, in addition to the selected Wi-Fi.
+	 * @param context
+	 * @param ssids SSIDs with or without the surrounding quotes, or null to clear
+	 */
+	public static void setSelectedWifiSsids(Context context, Set<String> ssids) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		// never store the caller's instance, SharedPreferences requires the set not to be modified afterwards
+		editor.putStringSet(QuuppaTag.PREFS_SELECTED_WIFI_SSIDS, ssids == null || ssids.isEmpty() ? null : new HashSet<>(ssids));
+		editor.commit();
+	}
+	
+    public static Set<String> getSelectedWifiBssids(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getStringSet(QuuppaTag.PREFS_SELECTED_WIFI_BSSIDS, null);
+    }
+    
+	/**
+	 * Set the access points the service is active in, matched against the BSSID of the current Wi-Fi network. Note that reading 
+	 * the BSSID requires location permission. 
+	 * @param context
+	 * @param bssids BSSIDs in "aa:bb:cc:dd:ee:ff" format, or null to clear
+	 */
+	public static void setSelectedWifiBssids(Context context, Set<String> bssids) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putStringSet(QuuppaTag.PREFS_SELECTED_WIFI_BSSIDS, bssids == null || bssids.isEmpty() ? null : new HashSet<>(bssids));
+		editor.commit();
+	}
+
+	public static final long DEFAULT_NETWORK_DEBOUNCE_MS = 1000L;
+	
+    public static long getNetworkDebounceMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_NETWORK_DEBOUNCE_MS, DEFAULT_NETWORK_DEBOUNCE_MS);
+    }
+    
+	/**
+	 * Set the window in which bursts of network callbacks are coalesced before the Wi-Fi selection is evaluated.
+	 * @param context
+	 * @param debounceMs debounce window in milliseconds
+	 */
+	public static void setNetworkDebounceMs(Context context, long debounceMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_NETWORK_DEBOUNCE_MS, debounceMs);
+		editor.commit();
+	}
+
+    public static String getActivationRule(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getString(QuuppaTag.PREFS_ACTIVATION_RULE, null);
+    }
+    
+	/**
+	 * Set the rule for conditional activation. Conditions are combined with '&amp;', '|', '!' and parentheses. Available conditions 
+	 * are geofence, wifi, charging, battery&gt;=N, battery&lt;N and time=HH:MM-HH:MM (in the operating time zone), e.g. 
+	 * "(geofence | wifi) &amp; (charging | battery&gt;=20)". Without a rule, the service is active when in any of the geofence zones or 
+	 * selected Wi-Fi networks.
+	 * @param context
+	 * @param rule the activation rule or null to use the default
+	 */
+	public static void setActivationRule(Context context, String rule) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putString(QuuppaTag.PREFS_ACTIVATION_RULE, rule);
+		editor.commit();
+	}
+	
+    public static String getOperatingSchedule(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getString(QuuppaTag.PREFS_OPERATING_SCHEDULE, null);
+    }
+    
+	/**
+	 * Set the weekly operating windows, e.g. "MON-FRI 08:00-18:00; SAT 10:00-14:00". Outside the windows the service is dormant: 
+	 * no sensors, location updates, network callbacks or wake lock, only a single alarm to wake it up at the start of the next window.
+	 * @param context
+	 * @param schedule the operating windows or null to operate all the time
+	 */
+	public static void setOperatingSchedule(Context context, String schedule) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putString(QuuppaTag.PREFS_OPERATING_SCHEDULE, schedule);
+		editor.commit();
+	}
+	
+    public static String getOperatingTimeZone(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getString(QuuppaTag.PREFS_OPERATING_TIME_ZONE, null);
+    }
+    
+	/**
+	 * Set the time zone of the operating windows and of the time conditions of the activation rule, typically the time zone of 
+	 * the site rather than of the device.
+	 * @param context
+	 * @param timeZone time zone id, e.g. "Europe/Helsinki", or null to use the device time zone
+	 */
+	public static void setOperatingTimeZone(Context context, String timeZone) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putString(QuuppaTag.PREFS_OPERATING_TIME_ZONE, timeZone);
+		editor.commit();
+	}
+	
+	public static final int DEFAULT_POWER_SAVER_BATTERY_LEVEL = 30;
+	public static final int DEFAULT_POWER_CRITICAL_BATTERY_LEVEL = 15;
+	
+    public static int getPowerSaverBatteryLevel(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getInt(QuuppaTag.PREFS_POWER_SAVER_BATTERY_LEVEL, DEFAULT_POWER_SAVER_BATTERY_LEVEL);
+    }
+    
+	/**
+	 * Set the battery level below which the service saves power with lower advertising rates and TX power.
+	 * @param context
+	 * @param percent battery level in percent
+	 */
+	public static void setPowerSaverBatteryLevel(Context context, int percent) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putInt(QuuppaTag.PREFS_POWER_SAVER_BATTERY_LEVEL, percent);
+		editor.commit();
+	}
+	
+    public static int getPowerCriticalBatteryLevel(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getInt(QuuppaTag.PREFS_POWER_CRITICAL_BATTERY_LEVEL, DEFAULT_POWER_CRITICAL_BATTERY_LEVEL);
+    }
+    
+	/**
+	 * Set the battery level below which the service only advertises at the minimum rate and TX power to last as long as possible.
+	 * @param context
+	 * @param percent battery level in percent
+	 */
+	public static void setPowerCriticalBatteryLevel(Context context, int percent) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putInt(QuuppaTag.PREFS_POWER_CRITICAL_BATTERY_LEVEL, percent);
+		editor.commit();
+	}
+	
+	public static final long DEFAULT_ONSET_BURST_MS = 0L;
+	
+    public static long getOnsetBurstMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_ONSET_BURST_MS, DEFAULT_ONSET_BURST_MS);
+    }
+    
+	/**
+	 * Set how long to advertise at the highest rate when the device starts moving or the service is activated, before settling to 
+	 * the normal moving rate. Locators acquire a tag fastest right after it wakes up, so a few seconds of burst, e.g. 3000 ms, 
+	 * shortens the time to the first position more than a permanently higher moving rate would. Not used in the critical power 
+	 * tier, while thermally throttled or when the moving rate already is the highest one, as in the normal and charging tiers unless 
+	 * in a vehicle.
+	 * @param context
+	 * @param burstMs the burst duration in milliseconds, 0 to disable
+	 */
+	public static void setOnsetBurstMs(Context context, long burstMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_ONSET_BURST_MS, burstMs);
+		editor.commit();
+	}
+	
+	// PowerManager.THERMAL_STATUS_MODERATE
+	public static final int DEFAULT_THERMAL_THROTTLING_STATUS = 2;
+	
+    public static int getThermalThrottlingStatus(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getInt(QuuppaTag.PREFS_THERMAL_THROTTLING_STATUS, DEFAULT_THERMAL_THROTTLING_STATUS);
+    }
+    
+	/**
+	 * Set the thermal status at which the service starts throttling on API 29+. Each status level at and above it doubles the 
+	 * advertising interval and accelerometer sampling period and lowers the TX power by one level.
+	 * @param context
+	 * @param status one of the PowerManager.THERMAL_STATUS_ values, Integer.MAX_VALUE to disable throttling
+	 */
+	public static void setThermalThrottlingStatus(Context context, int status) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putInt(QuuppaTag.PREFS_THERMAL_THROTTLING_STATUS, status);
+		editor.commit();
+	}
+	
+    public static boolean isMotionConfirmation(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getBoolean(QuuppaTag.PREFS_MOTION_CONFIRMATION, false);
+    }
+    
+	/**
+	 * Set whether an accelerometer spike must be confirmed by gyroscope rotation, or linear acceleration if there's no gyroscope, 
+	 * before a stationary device is considered moving. Filters out knocks on the desk and vibration, the gyroscope is only sampled 
+	 * for a short while after a spike.
+	 * @param context
+	 * @param confirmation true to confirm motion
+	 */
+	public static void setMotionConfirmation(Context context, boolean confirmation) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putBoolean(QuuppaTag.PREFS_MOTION_CONFIRMATION, confirmation);
+		editor.commit();
+	}
+	
+    public static boolean isFloorChangeDetection(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getBoolean(QuuppaTag.PREFS_FLOOR_CHANGE_DETECTION, false);
+    }
+    
+	/**
+	 * Set whether floor changes are detected with the pressure sensor. A floor change, e.g. in an elevator where the accelerometer 
+	 * sees little motion, switches to the moving advertising rate for a while. The pressure sensor is sampled at a low rate in 
+	 * hardware batches. Has no effect if the device has no pressure sensor.
+	 * @param context
+	 * @param detection true to detect floor changes
+	 */
+	public static void setFloorChangeDetection(Context context, boolean detection) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putBoolean(QuuppaTag.PREFS_FLOOR_CHANGE_DETECTION, detection);
+		editor.commit();
+	}
+	
+    public static String getAdditionalTags(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getString(QuuppaTag.PREFS_ADDITIONAL_TAGS, null);
+    }
+    
+	/**
+	 * Set additional tags emulated by this device besides its own tag, e.g. a carried asset. Tags are separated by ';', each given as
+	 * "tagId[,deviceType[,intervalShift]]" where tagId is 12 hex digits, deviceType one of {@link DeviceType} and intervalShift 0-4
+	 * halves the advertising rate of the tag for each step, e.g. "0123456789ab,TABLET,2; ba9876543210". All tags share the motion 
+	 * state and power policy of the device. Tags are dropped if the Bluetooth controller runs out of advertising sets.
+	 * @param context
+	 * @param tags the additional tags or null to emulate only the device's own tag
+	 */
+	public static void setAdditionalTags(Context context, String tags) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putString(QuuppaTag.PREFS_ADDITIONAL_TAGS, tags);
+		editor.commit();
+	}
+	
+    public static boolean isArbitration(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getBoolean(QuuppaTag.PREFS_ARBITRATION, false);
+    }
+    
+	/**
+	 * Set whether to advertise only if no other app embedding this library advertises the same tag ID. The apps must be signed with 
+	 * the same key and each declare {@link QuuppaTagArbitrationProvider}. Apps arbitrate when their service starts. The app already 
+	 * advertising the tag keeps it, the others stay dormant without polling and arbitrate again when the advertising app stops 
+	 * advertising the tag or its process dies. A follower whose process the system has reclaimed in the meantime only learns about 
+	 * the former. If two apps start at the same time, the one with the lower package name gets the tag.
+	 * @param context
+	 * @param arbitration true to advertise only if no other app advertises the tag
+	 */
+	public static void setArbitration(Context context, boolean arbitration) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putBoolean(QuuppaTag.PREFS_ARBITRATION, arbitration);
+		editor.commit();
+	}
+	
+	public static final float DEFAULT_GEOFENCE_ENTER_MARGIN = 0f;
+	public static final float DEFAULT_GEOFENCE_EXIT_MARGIN = 50f;
+	public static final long DEFAULT_GATING_ENTER_DWELL_MS = 0L;
+	public static final long DEFAULT_GATING_EXIT_DWELL_MS = 30000L;
+	public static final long DEFAULT_WIFI_LOSS_GRACE_MS = 10000L;
+	
+    public static float getGeofenceEnterMargin(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getFloat(QuuppaTag.PREFS_GEOFENCE_ENTER_MARGIN, DEFAULT_GEOFENCE_ENTER_MARGIN);
+    }
+    
+	/**
+	 * Set how far inside a geofence zone the device must be before the service activates.
+	 * @param context
+	 * @param meters enter margin in meters, 0 activates as soon as the device is inside a zone
+	 */
+	public static void setGeofenceEnterMargin(Context context, float meters) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putFloat(QuuppaTag.PREFS_GEOFENCE_ENTER_MARGIN, meters);
+		editor.commit();
+	}
+	
+    public static float getGeofenceExitMargin(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getFloat(QuuppaTag.PREFS_GEOFENCE_EXIT_MARGIN, DEFAULT_GEOFENCE_EXIT_MARGIN);
+    }
+    
+	/**
+	 * Set how far outside of all geofence zones the device must be before the service deactivates.
+	 * @param context
+	 * @param meters exit margin in meters
+	 */
+	public static void setGeofenceExitMargin(Context context, float meters) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putFloat(QuuppaTag.PREFS_GEOFENCE_EXIT_MARGIN, meters);
+		editor.commit();
+	}
+	
+    public static long getGatingEnterDwellMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_GATING_ENTER_DWELL_MS, DEFAULT_GATING_ENTER_DWELL_MS);
+    }
+    
+	/**
+	 * Set how long the device must stay inside a geofence zone or in the selected Wi-Fi before the service activates.
+	 * @param context
+	 * @param dwellMs minimum dwell time in milliseconds
+	 */
+	public static void setGatingEnterDwellMs(Context context, long dwellMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_GATING_ENTER_DWELL_MS, dwellMs);
+		editor.commit();
+	}
+	
+    public static long getGatingExitDwellMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_GATING_EXIT_DWELL_MS, DEFAULT_GATING_EXIT_DWELL_MS);
+    }
+    
+	/**
+	 * Set how long the device must stay outside of the geofence zones before the service deactivates.
+	 * @param context
+	 * @param dwellMs minimum dwell time in milliseconds
+	 */
+	public static void setGatingExitDwellMs(Context context, long dwellMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_GATING_EXIT_DWELL_MS, dwellMs);
+		editor.commit();
+	}
+	
+    public static long getWifiLossGraceMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_WIFI_LOSS_GRACE_MS, DEFAULT_WIFI_LOSS_GRACE_MS);
+    }
+    
+	/**
+	 * Set the grace period after losing the selected Wi-Fi network before the service deactivates.
+	 * @param context
+	 * @param graceMs grace period in milliseconds
+	 */
+	public static void setWifiLossGraceMs(Context context, long graceMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_WIFI_LOSS_GRACE_MS, graceMs);
+		editor.commit();
+	}
 
     public static String getSelectedLocation(Context context) {
         SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
@@ -311,6 +757,64 @@ public abstract class QuuppaTag {
 		editor.putString(QuuppaTag.PREFS_SELECTED_LOCATION, selectedLocation);
 		editor.commit();
 	}
+
+    public static String getGeofenceZones(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getString(QuuppaTag.PREFS_GEOFENCE_ZONES, null);
+    }
+    
+	/**
+	 * Set the geofence zones the service is active in. Zones are combined with the selected location, if any. 
+	 * @param context
+	 * @param geofenceZones semicolon separated list of zones, or null to clear. A circle is "lat,lon[,radius in meters]" (radius defaults 
+	 * to {@link QuuppaTagService#LOCATION_MAX_RADIUS_METERS}) and a polygon is three or more space separated "lat,lon" vertices, 
+	 * e.g. "60.1699,24.9384,200;60.17,24.93 60.171,24.93 60.171,24.932"
+	 */
+	public static void setGeofenceZones(Context context, String geofenceZones) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putString(QuuppaTag.PREFS_GEOFENCE_ZONES, geofenceZones);
+		editor.commit();
+	}
+	
+    public static boolean isPassiveLocation(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getBoolean(QuuppaTag.PREFS_PASSIVE_LOCATION, false);
+    }
+    
+	/**
+	 * Set passive location mode for geofence gating. In passive mode, the service only receives the location fixes other apps 
+	 * request anyway and escalates to a low-frequency active request only when no fix has arrived within the staleness budget 
+	 * while near a fence boundary.
+	 * @param context
+	 * @param passive true to use passive location, false (default) to request fused location updates
+	 */
+	public static void setPassiveLocation(Context context, boolean passive) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putBoolean(QuuppaTag.PREFS_PASSIVE_LOCATION, passive);
+		editor.commit();
+	}
+	
+	public static final long DEFAULT_LOCATION_STALENESS_MS = 120000L;
+	
+    public static long getLocationStalenessMs(Context context) {
+        SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+        return sharedPrefs.getLong(QuuppaTag.PREFS_LOCATION_STALENESS_MS, DEFAULT_LOCATION_STALENESS_MS);
+    }
+    
+	/**
+	 * Set the staleness budget for passive location mode, i.e. how long to wait for a passive fix near a fence boundary before 
+	 * requesting one actively.
+	 * @param context
+	 * @param stalenessMs staleness budget in milliseconds
+	 */
+	public static void setLocationStalenessMs(Context context, long stalenessMs) {
+		SharedPreferences sharedPrefs = context.getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
+		Editor editor = sharedPrefs.edit();
+		editor.putLong(QuuppaTag.PREFS_LOCATION_STALENESS_MS, stalenessMs);
+		editor.commit();
+	}
 	
 	
 	@SuppressWarnings("unchecked")
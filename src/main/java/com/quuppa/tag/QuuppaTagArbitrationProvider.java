@@ -0,0 +1,93 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Tells other apps embedding this library whether this app's service is advertising a tag ID, and hands out the lease to the ones
+ * staying dormant because of it, see {@link QuuppaTag#setArbitration(Context, boolean)}. Only apps signed with the same key get an 
+ * answer. Declare it in the manifest
+ * of each app with an authority unique to the app:
+ * <pre>
+ * &lt;provider android:name="com.quuppa.tag.QuuppaTagArbitrationProvider"
+ *     android:authorities="${applicationId}.quuppatag.arbitration" android:exported="true"&gt;
+ *     &lt;intent-filter&gt;&lt;action android:name="com.quuppa.tag.ARBITRATION"/&gt;&lt;/intent-filter&gt;
+ * &lt;/provider&gt;
+ * </pre>
+ */
+public class QuuppaTagArbitrationProvider extends ContentProvider {
+	public static final String ACTION = "com.quuppa.tag.ARBITRATION";
+	static final String METHOD_STATUS = "status";
+	static final String METHOD_RELEASED = "released";
+	static final String KEY_ADVERTISING = "advertising";
+	static final String KEY_CLAIMING = "claiming";
+	static final String KEY_LEASE = "lease";
+
+	@Override
+	public boolean onCreate() {
+		return true;
+	}
+
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		if (!METHOD_STATUS.equals(method) && !METHOD_RELEASED.equals(method)) return null;
+		Context context = getContext();
+		String caller = getCallingPackage();
+		if (caller == null || context.getPackageManager().checkSignatures(context.getPackageName(), caller) != PackageManager.SIGNATURE_MATCH)
+			throw new SecurityException("Package " + caller + " is not signed with the same key");
+		if (METHOD_RELEASED.equals(method)) {
+			ArbitrationLease.onReleased(context);
+			return null;
+		}
+		Bundle status = new Bundle();
+		boolean advertising = arg != null && QuuppaTagService.isAdvertisingTag(arg);
+		boolean claiming = arg != null && QuuppaTagService.isClaimingTag(arg);
+		status.putBoolean(KEY_ADVERTISING, advertising);
+		status.putBoolean(KEY_CLAIMING, claiming);
+		// the caller stays dormant if we have the tag, it hears from us when we let go of it
+		if (advertising || claiming) status.putBinder(KEY_LEASE, ArbitrationLease.addFollower(arg, caller));
+		return status;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		return null;
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return null;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		return null;
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		return 0;
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		return 0;
+	}
+}
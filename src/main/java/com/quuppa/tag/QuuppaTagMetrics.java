@@ -0,0 +1,139 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+/**
+ * Runtime metrics collected by {@link QuuppaTagService}. Like {@link QuuppaTag}, the operations are static and the class is not meant
+ * to be instantiated. The values are kept in memory only, so they are process wide and start from zero when the process is restarted.
+ * Values are only updated from the service's main thread.
+ */
+public abstract class QuuppaTagMetrics {
+	private static volatile long suppressedGatingTransitions;
+	private static volatile long thermalThrottledTimeMs;
+	private static volatile long rejectedMotionTriggers;
+	private static volatile long skippedAdvertisingDataUpdates;
+	private static volatile long advertisingStartFailures;
+	private static volatile long advertisingRecoveryTimeMs;
+	private static volatile long advertisingWatchdogRestarts;
+	private static volatile long bluetoothRecoveries;
+	private static volatile long bluetoothRecoveryTimeMs;
+	private static volatile long advertisingReconfigurations;
+	private static volatile long advertisingReconfigurationGapMs;
+
+	/** @return the number of geofence or Wi-Fi gating transitions that were suppressed because the condition didn't last the dwell time */
+	public static long getSuppressedGatingTransitions() {
+		return suppressedGatingTransitions;
+	}
+
+	static void incrementSuppressedGatingTransitions() {
+		suppressedGatingTransitions++;
+	}
+
+	/** @return total time in milliseconds advertising and sensing were throttled because of the thermal status, ongoing throttling not included */
+	public static long getThermalThrottledTimeMs() {
+		return thermalThrottledTimeMs;
+	}
+
+	static void addThermalThrottledTimeMs(long timeMs) {
+		thermalThrottledTimeMs += timeMs;
+	}
+
+	/** @return the number of accelerometer spikes that were not confirmed as motion by the gyroscope or linear acceleration */
+	public static long getRejectedMotionTriggers() {
+		return rejectedMotionTriggers;
+	}
+
+	static void incrementRejectedMotionTriggers() {
+		rejectedMotionTriggers++;
+	}
+
+	/** @return the number of advertising data updates that were not sent to the Bluetooth stack because the payload didn't change */
+	public static long getSkippedAdvertisingDataUpdates() {
+		return skippedAdvertisingDataUpdates;
+	}
+
+	static void incrementSkippedAdvertisingDataUpdates() {
+		skippedAdvertisingDataUpdates++;
+	}
+
+	/** @return the number of times starting advertising failed, each failure is retried unless it's permanent */
+	public static long getAdvertisingStartFailures() {
+		return advertisingStartFailures;
+	}
+
+	static void incrementAdvertisingStartFailures() {
+		advertisingStartFailures++;
+	}
+
+	/** @return total time in milliseconds tags were silent after a failed start until advertising was restored, ongoing failures not included */
+	public static long getAdvertisingRecoveryTimeMs() {
+		return advertisingRecoveryTimeMs;
+	}
+
+	static void addAdvertisingRecoveryTimeMs(long timeMs) {
+		advertisingRecoveryTimeMs += timeMs;
+	}
+
+	/** @return the number of times the liveness watchdog restarted an advertising set the Bluetooth stack had silently stopped */
+	public static long getAdvertisingWatchdogRestarts() {
+		return advertisingWatchdogRestarts;
+	}
+
+	static void incrementAdvertisingWatchdogRestarts() {
+		advertisingWatchdogRestarts++;
+	}
+
+	/** @return the number of times advertising was resumed after Bluetooth was turned back on, e.g. after airplane mode */
+	public static long getBluetoothRecoveries() {
+		return bluetoothRecoveries;
+	}
+
+	/** @return total time in milliseconds from Bluetooth turning on until advertising was back on air, over all recoveries */
+	public static long getBluetoothRecoveryTimeMs() {
+		return bluetoothRecoveryTimeMs;
+	}
+
+	static void addBluetoothRecovery(long timeMs) {
+		bluetoothRecoveries++;
+		bluetoothRecoveryTimeMs += timeMs;
+	}
+
+	/** @return the number of times an advertising set was replaced to apply a new configuration */
+	public static long getAdvertisingReconfigurations() {
+		return advertisingReconfigurations;
+	}
+
+	/** @return total time in milliseconds tags were off air while being reconfigured, zero when the old set could stay on air until the new one started */
+	public static long getAdvertisingReconfigurationGapMs() {
+		return advertisingReconfigurationGapMs;
+	}
+
+	static void addAdvertisingReconfiguration(long gapMs) {
+		advertisingReconfigurations++;
+		advertisingReconfigurationGapMs += gapMs;
+	}
+
+	public static void reset() {
+		suppressedGatingTransitions = 0;
+		thermalThrottledTimeMs = 0;
+		rejectedMotionTriggers = 0;
+		skippedAdvertisingDataUpdates = 0;
+		advertisingStartFailures = 0;
+		advertisingRecoveryTimeMs = 0;
+		advertisingWatchdogRestarts = 0;
+		bluetoothRecoveries = 0;
+		bluetoothRecoveryTimeMs = 0;
+		advertisingReconfigurations = 0;
+		advertisingReconfigurationGapMs = 0;
+	}
+}
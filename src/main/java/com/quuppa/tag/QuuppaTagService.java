@@ -12,9 +12,19 @@
 
 package com.quuppa.tag;
 
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-
-import com.quuppa.tag.QuuppaTag.DeviceType;
+import java.lang.reflect.Proxy;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
 
 import android.annotation.NonNull;
 import android.app.Activity;
@@ -24,14 +34,21 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertisingSet;
 import android.bluetooth.le.AdvertisingSetCallback;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Icon;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
@@ -44,11 +61,15 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
+import android.net.Uri;
 import android.net.wifi.WifiInfo;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class QuuppaTagService extends Service implements SensorEventListener {
@@ -75,28 +96,119 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 	private volatile boolean active = true;
 
 	public static long STATIONARY_TRESHOLD_MS = 20000L;
-	private static long STATIONARY_CHECK_DELAY = STATIONARY_TRESHOLD_MS + 5000L;
+	private static long ESCALATED_LOCATION_INTERVAL_MS = 60000L;
+	private static long STATIONARY_CHECK_MARGIN_MS = 5000L;
 	private static long ADVERTISINGSET_ADJUST_DELAY = 5000L;
+	// The watchdog runs on sensor events and stationary checks, so a silently stopped set is restarted within two of these
+	private static final long LIVENESS_CHECK_INTERVAL_MS = 60000L;
+	// alarm request codes, 0 is the notification and 1 the stationary check
+	private static final int RULE_CHECK_ALARM = 2;
+	private static final int SCHEDULE_CHECK_ALARM = 3;
+	private static final int ARBITRATION_CHECK_ALARM = 4;
+	private static final int LOCATION_CHECK_ALARM = 5;
+	private long lastLivenessCheck;
 	
-	// primary channel interval is 0.625ms per unit,
-	// https://developer.android.com/reference/android/bluetooth/le/AdvertisingSetParameters.Builder#setInterval(int)
-	// ~3Hz -> 533
-	private static int ADVERTISING_INTERVAL_MOVING = AdvertisingSetParameters.INTERVAL_LOW; // ~5hZ
-	// 0.1 Hz -> 16000
-	private static int ADVERTISING_INTERVAL_STATIONARY = AdvertisingSetParameters.INTERVAL_HIGH;
+	// advertising intervals, TX power and sensor rate by battery state
+	private final PowerPolicy powerPolicy = new PowerPolicy(QuuppaTag.DEFAULT_POWER_SAVER_BATTERY_LEVEL, QuuppaTag.DEFAULT_POWER_CRITICAL_BATTERY_LEVEL);
+	private int sensorDelay;
+	// Optionally confirm accelerometer spikes with the gyroscope, or linear acceleration, before leaving stationary
+	private static final long MOTION_CONFIRMATION_WINDOW_MS = 1000L;
+	// rad/s
+	private static final float CONFIRMATION_ROTATION_RATE = 0.3f;
+	// m/s^2, sustained for CONFIRMATION_SAMPLES samples, vibration and knocks are too short for that
+	private static final float CONFIRMATION_LINEAR_ACCELERATION = 0.8f;
+	private static final int CONFIRMATION_SAMPLES = 3;
+	private boolean motionConfirmation;
+	private Sensor confirmationSensor;
+	private boolean confirmingMotion;
+	private int confirmationSamples;
+	private final Runnable motionConfirmationTimeout = new Runnable() {
+		@Override
+		public void run() {
+			Log.v(QuuppaTagService.class.getSimpleName(), "Motion not confirmed");
+			QuuppaTagMetrics.incrementRejectedMotionTriggers();
+			stopMotionConfirmation();
+		}
+	};
+	// Advertise at the highest rate for a while after motion onset or activation, the locators acquire the tag faster
+	private long onsetBurstUntil;
+	private final Runnable onsetBurstEnd = new Runnable() {
+		@Override
+		public void run() {
+			if (running && moving) updateAdvertisingSets();
+		}
+	};
+	// Pressure is sampled at 1 Hz and delivered in batches, an elevator ride takes longer than the batch latency anyway
+	private static final int PRESSURE_SAMPLING_PERIOD_US = 1000000;
+	private static final int PRESSURE_MAX_REPORT_LATENCY_US = 10000000;
+	private static final long FLOOR_CHANGE_MOVING_MS = 30000L;
+	private final FloorChangeDetector floorChangeDetector = new FloorChangeDetector();
+	private Sensor pressureSensor;
+	private boolean pressureSensorRegistered;
+	// moving regardless of the accelerometer until this time
+	private long forcedMovingUntil;
+	private final NoiseFloorCalibrator noiseFloorCalibrator = new NoiseFloorCalibrator();
+	private static final long SHAKE_THRESHOLD_RECALIBRATION_MS = 3600000L;
+	private boolean shakeThresholdCalibration;
+	private long lastShakeThresholdCalibration;
+	private final MotionClassifier motionClassifier = new MotionClassifier();
+	// below this the previous class is kept
+	private static final float MIN_MOTION_CLASS_CONFIDENCE = 0.6f;
+	private MotionClassifier.MotionClass motionClass = MotionClassifier.MotionClass.STILL;
+	// Deep Doze means the device has been left alone, no need to keep the accelerometer running to find that out
+	private boolean deviceIdle;
+	private boolean deviceStateReceiverRegistered;
+	private final BroadcastReceiver deviceStateReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onDeviceStateChanged(intent.getAction());
+		}
+	};
+	// Everything but advertising keeps running while Bluetooth is off, advertising resumes as soon as it's back on
+	private boolean bluetoothOff;
+	// when Bluetooth was turned back on, until advertising is on air again
+	private long bluetoothOnAt;
+	private boolean bluetoothStateReceiverRegistered;
+	private final BroadcastReceiver bluetoothStateReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onBluetoothStateChanged(intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR));
+		}
+	};
+	private final ThermalThrottle thermalThrottle = new ThermalThrottle(QuuppaTag.DEFAULT_THERMAL_THROTTLING_STATUS);
+	// PowerManager.OnThermalStatusChangedListener proxy, the interface is API 29
+	private Object thermalStatusListener;
+	private static final Class<?> thermalStatusListenerClass;
+	private static final Method addThermalStatusListenerMethod;
+	private static final Method removeThermalStatusListenerMethod;
+	private static final Method getCurrentThermalStatusMethod;
+	static {
+		Class<?> listenerClass = null;
+		Method addMethod = null, removeMethod = null, statusMethod = null;
+		try {
+			listenerClass = Class.forName("android.os.PowerManager$OnThermalStatusChangedListener");
+			addMethod = PowerManager.class.getMethod("addThermalStatusListener", listenerClass);
+			removeMethod = PowerManager.class.getMethod("removeThermalStatusListener", listenerClass);
+			statusMethod = PowerManager.class.getMethod("getCurrentThermalStatus");
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			listenerClass = null;
+		}
+		thermalStatusListenerClass = listenerClass;
+		addThermalStatusListenerMethod = addMethod;
+		removeThermalStatusListenerMethod = removeMethod;
+		getCurrentThermalStatusMethod = statusMethod;
+	}
 	
-	private boolean advertisingStarted;
+	// The device's own tag first, then the additional emulated tags. All share the same motion state and power policy.
+	private final List<EmulatedTag> tags = new ArrayList<>();
+	// The controller's advertising set count can't be queried, it's learned from ADVERTISE_FAILED_TOO_MANY_ADVERTISERS
+	private static int maxAdvertisingSets = EmulatedTag.MAX_TAGS;
 
-	private DeviceType deviceType;
 	private Class<? extends Activity> notifiedActivityClass;
 
-	private AdvertisingSetCallback advertisingSetCallback = createAdvertisingSetCallback();
 	private boolean canScheduleExactAlarms = true;
 	private Method canScheduleExactAlarmsMethod = null;
 
-	private volatile AdvertisingSet advertisingSet;
-
-	private AdvertisingSetParameters advertisingSetParameters;
 	private float shakeThreshold;
 	
     private final NetworkRequest networkRequest =
@@ -105,97 +217,348 @@ public class QuuppaTagService extends Service implements SensorEventListener {
                     .build();
 	private ConnectivityManager connectivityManager;
 	private LocationManager locationManager;
-	private LocationListener locationListener = new LocationListener() {
-	    @Override
-	    public void onLocationChanged(@NonNull Location location) {
-	        activateWithinLocation(location);
-	    }
-
+	private LocationListener locationListener = createLocationListener();
+	// Only used for escalating to an active request in passive location mode
+	private LocationListener escalationListener = createLocationListener();
+	
+	private LocationListener createLocationListener() {
+		return new LocationListener() {
+		    @Override
+		    public void onLocationChanged(@NonNull Location location) {
+		    	onLocation(location);
+		    }
+	
+			@Override
+			public void onStatusChanged(String provider, int status, Bundle extras) {}
+	
+			@Override
+			public void onProviderEnabled(String provider) {}
+	
+			@Override
+			public void onProviderDisabled(String provider) {}
+		};
+	}
+	
+    private ConnectivityManager.NetworkCallback networkCallback;
+	private Notification notification;
+	
+	private static final int WIFI_LOST = 0, WIFI_NOT_SELECTED = 1, WIFI_SELECTED = 2, WIFI_UNKNOWN = 3;
+	private static final Method getTransportInfoMethod;
+	static {
+		Method method = null;
+		try {
+			method = NetworkCapabilities.class.getMethod("getTransportInfo", new Class<?>[]{});
+		} catch (NoSuchMethodException e) {}
+		getTransportInfoMethod = method;
+	}
+	private Network currentNetwork;
+	private NetworkCapabilities currentNetworkCapabilities;
+	private int lastWifiState = -1;
+	private boolean networkEvaluationPosted;
+	private long networkDebounceMs;
+	private final Runnable networkEvaluation = new Runnable() {
 		@Override
-		public void onStatusChanged(String provider, int status, Bundle extras) {}
-
+		public void run() {
+			evaluateNetwork();
+		}
+	};
+	// cached so that network and location callbacks don't need to read the preferences
+	private volatile boolean enabled;
+	// null if the service is unconditionally active
+	private volatile ActivationRule activationRule;
+	private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
 		@Override
-		public void onProviderEnabled(String provider) {}
-
+		public void onReceive(Context context, Intent intent) {
+			onBatteryChanged(intent);
+		}
+	};
+	private boolean batteryReceiverRegistered;
+	
+	private final ActivationHysteresis wifiHysteresis = new ActivationHysteresis(0, QuuppaTag.DEFAULT_WIFI_LOSS_GRACE_MS);
+	private final Runnable wifiGateCheck = new Runnable() {
+		@Override
+		public void run() {
+			applyWifiGate();
+		}
+	};
+	private final ActivationHysteresis geofenceHysteresis = new ActivationHysteresis(0, QuuppaTag.DEFAULT_GATING_EXIT_DWELL_MS);
+	private final Runnable geofenceGateCheck = new Runnable() {
 		@Override
-		public void onProviderDisabled(String provider) {}
+		public void run() {
+			applyGeofenceGate();
+		}
 	};
+	private boolean insideGeofence;
+	private float geofenceEnterMargin;
+	private float geofenceExitMargin;
 	
-    private ConnectivityManager.NetworkCallback networkCallback;
-	private Notification notification;
+	private volatile Geofence geofence;
+	private volatile WifiMatcher wifiMatcher;
+	private final LocationPolicy locationPolicy = new LocationPolicy();
+	private float distanceToBoundary = Float.NaN;
+	private boolean passiveLocation;
+	private long locationStalenessMs;
+	private boolean locationEscalated;
+	private boolean locationStalenessAlarmSet;
+	private long lastLocationFix;
+	private volatile OperatingSchedule operatingSchedule;
+	// of the operating schedule and of the time input of the activation rule
+	private volatile ZoneId operatingZone = ZoneId.systemDefault();
+	// next schedule boundary the alarm is set for
+	private long scheduleBoundary = Long.MIN_VALUE;
+	// true when outside the operating schedule or another app advertises our tag, the service is going down and stays down until 
+	// the next window or until the other app releases the tag
+	private boolean dormant;
+	// start intents wait for the result of an arbitration check running in the background
+	private boolean arbitrated;
+	private boolean arbitrationCheckPending;
+	private final List<Intent> arbitrationWaitingIntents = new ArrayList<>();
+	// tag IDs advertised by this process, read by QuuppaTagArbitrationProvider on a binder thread
+	private static volatile Set<String> advertisedTagIds = new HashSet<>();
+	// tag ID arbitrated for by this process but not advertised yet
+	private static volatile String claimedTagId;
+	// network callback, battery receiver, location and rule alarm are only registered within the operating schedule
+	private boolean inputsRegistered;
+	private Handler handler;
+	private AdvertisingRetry advertisingRetry;
+	// SharedPreferences only holds a weak reference to the listener
+	private final SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+			if (dormant) return;
+			if (QuuppaTag.PREFS_ENABLED.equals(key)) enabled = isEnabled();
+			else if (QuuppaTag.PREFS_NETWORK_DEBOUNCE_MS.equals(key)) networkDebounceMs = QuuppaTag.getNetworkDebounceMs(QuuppaTagService.this);
+			else if (QuuppaTag.PREFS_GEOFENCE_ZONES.equals(key) || QuuppaTag.PREFS_SELECTED_LOCATION.equals(key)) {
+				loadGeofence();
+				loadActivationRule();
+				if (geofence == null) unregisterLocationListener();
+				else updateLocationRequest();
+			}
+			else if (QuuppaTag.PREFS_SELECTED_WIFI.equals(key) || QuuppaTag.PREFS_SELECTED_WIFI_SSIDS.equals(key) 
+					|| QuuppaTag.PREFS_SELECTED_WIFI_BSSIDS.equals(key)) {
+				loadWifiMatcher();
+				loadActivationRule();
+			}
+			else if (QuuppaTag.PREFS_ACTIVATION_RULE.equals(key)) loadActivationRule();
+			else if (QuuppaTag.PREFS_GEOFENCE_ENTER_MARGIN.equals(key) || QuuppaTag.PREFS_GEOFENCE_EXIT_MARGIN.equals(key) 
+					|| QuuppaTag.PREFS_GATING_ENTER_DWELL_MS.equals(key) || QuuppaTag.PREFS_GATING_EXIT_DWELL_MS.equals(key) 
+					|| QuuppaTag.PREFS_WIFI_LOSS_GRACE_MS.equals(key)) loadGatingPolicy();
+			else if (QuuppaTag.PREFS_PASSIVE_LOCATION.equals(key) || QuuppaTag.PREFS_LOCATION_STALENESS_MS.equals(key)) {
+				// provider changes, start over with a fresh request
+				unregisterLocationListener();
+				loadLocationMode();
+				if (geofence != null) updateLocationRequest();
+			}
+			else if (QuuppaTag.PREFS_POWER_SAVER_BATTERY_LEVEL.equals(key) || QuuppaTag.PREFS_POWER_CRITICAL_BATTERY_LEVEL.equals(key)) {
+				loadPowerPolicy();
+				if (powerPolicy.reevaluate()) applyPowerTier();
+			}
+			else if (QuuppaTag.PREFS_SHAKE_THRESHOLD.equals(key)) shakeThreshold = QuuppaTag.getShakeThreshold(QuuppaTagService.this);
+			else if (QuuppaTag.PREFS_SHAKE_THRESHOLD_CALIBRATION.equals(key)) {
+				shakeThresholdCalibration = QuuppaTag.isShakeThresholdCalibration(QuuppaTagService.this);
+				noiseFloorCalibrator.reset();
+			}
+			else if (QuuppaTag.PREFS_ADDITIONAL_TAGS.equals(key)) {
+				if (running) reloadAdditionalTags();
+			}
+			else if (QuuppaTag.PREFS_ADVERTISINGSET_TX_POWER.equals(key) || QuuppaTag.PREFS_ADVERTISINGSET_STATIONARY_TX_POWER.equals(key)) 
+				reconfigureAdvertising();
+			else if (QuuppaTag.PREFS_TAG_ID.equals(key) || QuuppaTag.PREFS_DEVICETYPE.equals(key)) {
+				if (running && reloadPrimaryTag()) {
+					publishAdvertisedTagIds();
+					replaceAdvertisingSets();
+				}
+			}
+			else if (QuuppaTag.PREFS_FLOOR_CHANGE_DETECTION.equals(key)) {
+				if (running) registerPressureSensor();
+			}
+			else if (QuuppaTag.PREFS_MOTION_CONFIRMATION.equals(key)) {
+				motionConfirmation = QuuppaTag.isMotionConfirmation(QuuppaTagService.this);
+				if (!motionConfirmation) stopMotionConfirmation();
+			}
+			else if (QuuppaTag.PREFS_THERMAL_THROTTLING_STATUS.equals(key)) {
+				if (thermalThrottle.configure(QuuppaTag.getThermalThrottlingStatus(QuuppaTagService.this), SystemClock.elapsedRealtime())) 
+					reconfigureAdvertising();
+			}
+			else if (QuuppaTag.PREFS_OPERATING_SCHEDULE.equals(key) || QuuppaTag.PREFS_OPERATING_TIME_ZONE.equals(key)) {
+				loadOperatingSchedule();
+				if (!updateOperatingSchedule()) enterScheduleDormancy();
+				else if (inputsRegistered) {
+					updateTimeInput();
+					applyActivationRule("by activation rule time of day");
+				}
+			}
+		}
+	};
     
     private void onNetworkLost(Network network) {
-		if (!isEnabled()) return;
-		if (!isConditionallyActive()) return;
-        String selectedSsid = QuuppaTag.getSelectedWifi(QuuppaTagService.this);
-        if (selectedSsid == null) return;
-
-        boolean wasRunning = running;
-        active = false;
-        stop();
-		if (wasRunning) Log.i(QuuppaTagService.class.getSimpleName(), "Deactivated broadcasting because Wi-Fi network was lost or disabled");
+    	// the lost one may be a previous network we have already seen replaced
+    	if (currentNetwork != null && !currentNetwork.equals(network)) return;
+    	currentNetwork = null;
+    	currentNetworkCapabilities = null;
+    	scheduleNetworkEvaluation();
     }
     
     private void onNetworkCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
-        Log.d(QuuppaTagService.class.getSimpleName(), "onCapabilitiesChanged() called");
-		
-		if (!isEnabled()) return;
-		if (!isConditionallyActive()) return;
-        String selectedSsid = QuuppaTag.getSelectedWifi(QuuppaTagService.this);
-        if (selectedSsid == null) return;
+    	currentNetwork = network;
+    	currentNetworkCapabilities = networkCapabilities;
+    	scheduleNetworkEvaluation();
+    }
+    
+    // ConnectivityManager calls onCapabilitiesChanged repeatedly as signal strength and link properties change, 
+    // only evaluate the latest state once per debounce window
+    private void scheduleNetworkEvaluation() {
+    	if (networkEvaluationPosted) return;
+    	networkEvaluationPosted = true;
+    	handler.postDelayed(networkEvaluation, networkDebounceMs);
+    }
+    
+    private int readWifiState(NetworkCapabilities networkCapabilities, WifiMatcher wifiMatcher) throws Exception {
         // Don't allow calling this operation from device with API level < 29
+        WifiInfo wifiInfo = (WifiInfo) getTransportInfoMethod.invoke(networkCapabilities);
+		if (wifiInfo == null) return WIFI_NOT_SELECTED;
+
+        String ssid = wifiInfo.getSSID();
+        if ("<unknown ssid>".equalsIgnoreCase(ssid)) ssid = null;
+        long bssid = WifiMatcher.parseBssid(wifiInfo.getBSSID());
+        
+        if (!(ssid != null && wifiMatcher.hasSsids()) && !(bssid != WifiMatcher.NO_BSSID && wifiMatcher.hasBssids())) return WIFI_UNKNOWN;
+        return wifiMatcher.matchesSsid(ssid) || wifiMatcher.matchesBssid(bssid) ? WIFI_SELECTED : WIFI_NOT_SELECTED;
+    }
+    
+    private void evaluateNetwork() {
+    	networkEvaluationPosted = false;
+        Log.d(QuuppaTagService.class.getSimpleName(), "evaluateNetwork() called");
+		
+		if (!enabled) return;
+		if (activationRule == null) return;
+		WifiMatcher wifiMatcher = this.wifiMatcher;
+		if (wifiMatcher == null) return;
+		
+		NetworkCapabilities networkCapabilities = currentNetworkCapabilities;
+		int wifiState;
         try {
-            Method method = NetworkCapabilities.class.getMethod("getTransportInfo", new Class<?>[]{});
-            WifiInfo wifiInfo = (WifiInfo) method.invoke(networkCapabilities);
-            
-			if (wifiInfo == null) {
-                active = false;
-                running = false;
-    			Log.i(QuuppaTagService.class.getSimpleName(), "Deactivated broadcasting because not in the selected Wi-Fi network anymore");
-				return;
-			}
-
-            String ssid = wifiInfo.getSSID();
-            
-            boolean wasRunning = running;
-            if (ssid == null || "<unknown ssid>".equalsIgnoreCase(ssid)) {
-                Log.w(QuuppaTagService.class.getSimpleName(), "Couldn't read SSID of current Wi-Fi, likely because of a permisson problem, we must keep broadcasting always active");
-            	active = true;
-            }
-            else active = ssid.equals(selectedSsid);
-            
-            if (!active) {
-            	stop();
-    			Log.i(QuuppaTagService.class.getSimpleName(), "Deactivated broadcasting because not in the selected Wi-Fi network anymore");
-            }
-            else if (!wasRunning) {
-            	QuuppaTagService.this.startForegroundService(new Intent(QuuppaTagService.this, QuuppaTagService.class));
-    			Log.i(QuuppaTagService.class.getSimpleName(), "Activated broadcasting after connecting to the selected Wi-Fi network");
-            }
+        	wifiState = networkCapabilities == null ? WIFI_LOST : readWifiState(networkCapabilities, wifiMatcher);
         } catch (Exception e) {
 			Log.e(QuuppaTagService.class.getSimpleName(), "Error while wifi capabilities changed: " + e.getMessage());
 			e.printStackTrace();
+			return;
         }
+        // only act on real transitions
+        if (wifiState == lastWifiState) return;
+        lastWifiState = wifiState;
+        
+        if (wifiState == WIFI_UNKNOWN) Log.w(QuuppaTagService.class.getSimpleName(), "Couldn't read SSID or BSSID of current Wi-Fi, likely because of a permisson problem, we must keep broadcasting always active");
+        applyWifiGate();
+    }
+    
+    // Losing the selected network is only accepted after the grace period, the connection often comes back right away
+    private void applyWifiGate() {
+		handler.removeCallbacks(wifiGateCheck);
+		long now = SystemClock.elapsedRealtime();
+		boolean selected = wifiHysteresis.update(lastWifiState == WIFI_SELECTED || lastWifiState == WIFI_UNKNOWN, now);
+		long deadline = wifiHysteresis.getPendingDeadline();
+		if (deadline >= 0) handler.postDelayed(wifiGateCheck, deadline - now);
+		
+		ActivationRule activationRule = this.activationRule;
+		if (activationRule == null) return;
+		activationRule.setInput(ActivationRule.INPUT_WIFI, selected);
+		if (selected) applyActivationRule("after connecting to the selected Wi-Fi network");
+		else applyActivationRule(lastWifiState == WIFI_LOST ? "because Wi-Fi network was lost or disabled" : "because not in the selected Wi-Fi network anymore");
     }
 	
-	private AdvertisingSetCallback createAdvertisingSetCallback() {
+	private AdvertisingSetCallback createAdvertisingSetCallback(final EmulatedTag tag) {
 		return new AdvertisingSetCallback() {
 			@Override
 			public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
 				Log.v(QuuppaTagService.class.getSimpleName(),
-						"onAdvertisingSetStarted() status " + status + ", moving " + moving);
-				QuuppaTagService.this.advertisingSet = advertisingSet;
-				advertisingStarted = true;
+						"onAdvertisingSetStarted() tag " + tag.tagId + " status " + status + ", moving " + moving);
+				// a set stopped before it started may still report back
+				if (tag.advertisingSetCallback != this) return;
+				tag.livenessCheckPending = false;
+				if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS && tag.replacedCallback != null) {
+					// no room for both sets, or the new one failed: break before make
+					Log.d(QuuppaTagService.class.getSimpleName(), "Couldn't start tag " + tag.tagId + " alongside the old set, stopping it first");
+					stopReplacedAdvertisingSet(tag);
+					tag.offAirSince = SystemClock.elapsedRealtime();
+					if (status == AdvertisingSetCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+						startAdvertisingSet(tag, getAdvertisingSetTxPower());
+						return;
+					}
+				}
+				int index = tags.indexOf(tag);
+				// out of sets while replacing is not a limit on the number of tags
+				if (status == AdvertisingSetCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS && index > 0 && tag.offAirSince == 0) {
+					// out of advertising sets, keep the tags that fit and don't try more of them again
+					maxAdvertisingSets = index;
+					Log.w(QuuppaTagService.class.getSimpleName(), "Bluetooth controller supports only " + index 
+							+ " advertising sets, dropping " + (tags.size() - index) + " emulated tags");
+					removeEmulatedTags(index);
+					return;
+				}
+				if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+					onAdvertisingSetFailed(tag, status);
+					return;
+				}
+				tag.advertisingSet = advertisingSet;
+				tag.advertisingStarted = true;
+				if (tag.replacedCallback != null) {
+					stopReplacedAdvertisingSet(tag);
+					QuuppaTagMetrics.addAdvertisingReconfiguration(0);
+				}
+				else if (tag.offAirSince != 0) {
+					long gapMs = SystemClock.elapsedRealtime() - tag.offAirSince;
+					Log.d(QuuppaTagService.class.getSimpleName(), "Tag " + tag.tagId + " reconfigured with " + gapMs + " ms off air");
+					QuuppaTagMetrics.addAdvertisingReconfiguration(gapMs);
+					tag.offAirSince = 0;
+				}
+				if (bluetoothOnAt != 0) {
+					long recoveryMs = SystemClock.elapsedRealtime() - bluetoothOnAt;
+					Log.i(QuuppaTagService.class.getSimpleName(), "Advertising resumed " + recoveryMs + " ms after Bluetooth was turned on");
+					QuuppaTagMetrics.addBluetoothRecovery(recoveryMs);
+					bluetoothOnAt = 0;
+				}
+				if (tag.failures > 0) {
+					long silentMs = SystemClock.elapsedRealtime() - tag.failedSince;
+					Log.i(QuuppaTagService.class.getSimpleName(), "Advertising tag " + tag.tagId + " recovered after " + tag.failures 
+							+ " failed starts in " + silentMs + " ms");
+					QuuppaTagMetrics.addAdvertisingRecoveryTimeMs(silentMs);
+					tag.failures = 0;
+				}
+				onAdvertisingDataSet(advertisingSet, status);
 			}
 
 			@Override
 			public void onAdvertisingEnabled(AdvertisingSet advertisingSet, boolean enable, int status) {
 				Log.v(QuuppaTagService.class.getSimpleName(), "onAdvertisingEnabled(), enable " + enable);
+				if (tag.advertisingSetCallback != this) return;
+				tag.livenessCheckPending = false;
+				// liveness check or in place update failed
+				if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+					Log.w(QuuppaTagService.class.getSimpleName(), "Advertising tag " + tag.tagId + " enable " + enable + " failed with status " + status);
+					restartAdvertisingSet(tag);
+				}
+			}
+
+			@Override
+			public void onAdvertisingParametersUpdated(AdvertisingSet advertisingSet, int txPower, int status) {
+				Log.v(QuuppaTagService.class.getSimpleName(), "onAdvertisingParametersUpdated(), txPower " + txPower + ", status " + status);
+				if (tag.advertisingSetCallback != this || status == AdvertisingSetCallback.ADVERTISE_SUCCESS) return;
+				Log.w(QuuppaTagService.class.getSimpleName(), "Updating advertising parameters of tag " + tag.tagId + " failed with status " + status);
+				restartAdvertisingSet(tag);
 			}
 
 			@Override
 			public void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
 				Log.v(QuuppaTagService.class.getSimpleName(), "onAdvertisingDataSet(), status " + status);
+				// a stopped set may still report back
+				if (tag.advertisingSetCallback != this) return;
+				// on failure the previous data stays on air
+				if (status == AdvertisingSetCallback.ADVERTISE_SUCCESS) tag.publishedData = tag.inFlightData;
+				tag.inFlightData = null;
+				byte[] pendingData = tag.pendingData;
+				tag.pendingData = null;
+				if (pendingData != null && advertisingSet != null) updateAdvertisingData(tag, advertisingSet, pendingData);
 			}
 
 			@Override
@@ -205,50 +568,770 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 
 			@Override
 			public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
-				Log.v(QuuppaTagService.class.getSimpleName(), "onAdvertisingSetStopped()");
-				advertisingStarted = false;
+				Log.v(QuuppaTagService.class.getSimpleName(), "onAdvertisingSetStopped() tag " + tag.tagId);
+				if (tag.advertisingSetCallback == this) tag.advertisingStarted = false;
 			}
 		};
 	}
 	
-    private Location getSelectedLocation() {
-        String locationString = QuuppaTag.getSelectedLocation(this);
-        if (locationString == null) return null;
-
-        try {
-            String[] parts = locationString.split(",");
-            double lat = Double.parseDouble(parts[0]);
-            double lon = Double.parseDouble(parts[1]);
-
-            Location location = new Location("stored");
-            location.setLatitude(lat);
-            location.setLongitude(lon);
-            return location;
-        } catch (Exception e) {
-            Log.e(QuuppaTagService.class.getSimpleName(), "Invalid saved location format, erasing", e);
-            QuuppaTag.setSelectedLocation(this, null);
-            return null;
-        }
-    }	
+	private void onAdvertisingSetFailed(EmulatedTag tag, int status) {
+		tag.advertisingSet = null;
+		tag.advertisingStarted = false;
+		tag.inFlightData = null;
+		tag.pendingData = null;
+		QuuppaTagMetrics.incrementAdvertisingStartFailures();
+		long delay = advertisingRetry.onFailed(tag, status, SystemClock.elapsedRealtime());
+		if (delay < 0) {
+			Log.e(getClass().getSimpleName(), "Advertising tag " + tag.tagId + " failed with status " + status + ", not retrying");
+			sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
+			return;
+		}
+		// still failing at the longest backoff, let the app know the tag is silent
+		if (tag.failures == EmulatedTag.MAX_RETRY_SHIFT + 1) sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
+		Log.w(getClass().getSimpleName(), "Advertising tag " + tag.tagId + " failed with status " + status + ", retrying in " + delay + " ms");
+	}
+	
+	private void cancelAdvertisingRetry(EmulatedTag tag) {
+		advertisingRetry.cancel(tag);
+	}
+	
+	/*
+	 * The stack may stop a set without telling, e.g. on a Bluetooth restart or when an OEM battery manager steps in. Enabling an 
+	 * enabled set is a no-op that still gets a callback, so probe each started set and restart it if the previous probe or start 
+	 * was never answered. Tags in retry backoff are left alone.
+	 */
+	private void checkAdvertisingLiveness() {
+		long now = SystemClock.elapsedRealtime();
+		if (now - lastLivenessCheck < LIVENESS_CHECK_INTERVAL_MS) return;
+		lastLivenessCheck = now;
+		
+		BluetoothAdapter adapter = ((BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+		if (adapter == null || adapter.getState() != BluetoothAdapter.STATE_ON) {
+			// nothing is on air, make sure the next schedule adjustment starts over
+			Log.w(getClass().getSimpleName(), "Bluetooth is not on, advertising stopped");
+			for (EmulatedTag tag : tags) {
+				tag.advertisingStarted = false;
+				tag.livenessCheckPending = false;
+			}
+			return;
+		}
+		for (EmulatedTag tag : tags) {
+			if (tag.isFailing()) continue;
+			if (tag.livenessCheckPending) {
+				Log.w(getClass().getSimpleName(), "Advertising tag " + tag.tagId + " not responding, restarting");
+				QuuppaTagMetrics.incrementAdvertisingWatchdogRestarts();
+				restartAdvertisingSet(tag);
+				continue;
+			}
+			tag.livenessCheckPending = true;
+			AdvertisingSet advertisingSet = tag.advertisingSet;
+			if (tag.advertisingStarted && advertisingSet != null) advertisingSet.enableAdvertising(true, 0, 0);
+		}
+	}
+	
+	private void restartAdvertisingSet(EmulatedTag tag) {
+		try {
+			stopAdvertisingSet(QuuppaTag.getBluetoothLeAdvertiser(this), tag);
+		} catch (QuuppaTagException e) {
+			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
+			return;
+		}
+		startAdvertisingSet(tag, getAdvertisingSetTxPower());
+	}
+	
+	private void loadEmulatedTags() {
+		tags.clear();
+		tags.addAll(createEmulatedTags());
+	}
+	
+	// The device's own tag first, then as many additional ones as the controller has advertising sets for
+	private List<EmulatedTag> createEmulatedTags() {
+		List<EmulatedTag> tags = new ArrayList<>();
+		tags.add(new EmulatedTag(QuuppaTag.getOrInitTagId(this), QuuppaTag.getOrInitDeviceType(this), 0));
+		List<EmulatedTag> additionalTags;
+		try {
+			additionalTags = EmulatedTag.parse(QuuppaTag.getAdditionalTags(this));
+		} catch (IllegalArgumentException e) {
+			Log.e(getClass().getSimpleName(), "Invalid additional tags, emulating only the device's own tag", e);
+			return tags;
+		}
+		if (additionalTags.isEmpty()) return tags;
+		
+		BluetoothAdapter adapter = ((BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+		if (adapter == null || !adapter.isMultipleAdvertisementSupported()) {
+			Log.w(getClass().getSimpleName(), "Multiple advertisement not supported, emulating only the device's own tag");
+			return tags;
+		}
+		for (EmulatedTag tag : additionalTags) {
+			if (tags.size() >= Math.min(EmulatedTag.MAX_TAGS, maxAdvertisingSets)) {
+				Log.w(getClass().getSimpleName(), "Too many emulated tags, ignoring tag " + tag.tagId);
+				continue;
+			}
+			boolean duplicate = false;
+			for (EmulatedTag existing : tags) if (existing.tagId.equals(tag.tagId)) duplicate = true;
+			if (duplicate) Log.w(getClass().getSimpleName(), "Ignoring duplicate emulated tag " + tag.tagId);
+			else tags.add(tag);
+		}
+		return tags;
+	}
+	
+	/*
+	 * Tags in both the old and the new list keep their sets and stay on air, only the removed ones are stopped and the added ones
+	 * started. A tag with a changed device type or interval shift counts as removed and added.
+	 */
+	private void reloadAdditionalTags() {
+		List<EmulatedTag> newTags = createEmulatedTags();
+		List<EmulatedTag> addedTags = new ArrayList<>();
+		for (int i = 0; i < newTags.size(); i++) {
+			EmulatedTag tag = newTags.get(i);
+			EmulatedTag existing = null;
+			for (EmulatedTag old : tags) {
+				if (old.tagId.equals(tag.tagId) && old.deviceType == tag.deviceType && old.intervalShift == tag.intervalShift) existing = old;
+			}
+			if (existing != null) newTags.set(i, existing);
+			else addedTags.add(tag);
+		}
+		// removed first, to make room in the controller for the added ones
+		try {
+			BluetoothLeAdvertiser bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
+			for (EmulatedTag tag : tags) if (!newTags.contains(tag)) stopAdvertisingSet(bluetoothLeAdvertiser, tag);
+		} catch (QuuppaTagException e) {}
+		for (EmulatedTag tag : tags) if (!newTags.contains(tag)) cancelAdvertisingRetry(tag);
+		Log.d(getClass().getSimpleName(), "Emulated tags reloaded, " + addedTags.size() + " added, " 
+				+ (tags.size() + addedTags.size() - newTags.size()) + " removed");
+		tags.clear();
+		tags.addAll(newTags);
+		publishAdvertisedTagIds();
+		// resumed by the Bluetooth state receiver
+		if (bluetoothOff) return;
+		int advertisingSetTxPower = getAdvertisingSetTxPower();
+		for (EmulatedTag tag : addedTags) if (!startAdvertisingSet(tag, advertisingSetTxPower)) return;
+	}
+	
+	/*
+	 * Picks up a changed tag ID or device type. The new tag takes over the old one's set, so that it stays on air until the next
+	 * replaceAdvertisingSets() has started the new one.
+	 * @return true if the tag changed
+	 */
+	private boolean reloadPrimaryTag() {
+		EmulatedTag old = tags.get(0);
+		EmulatedTag tag = new EmulatedTag(QuuppaTag.getOrInitTagId(this), QuuppaTag.getOrInitDeviceType(this), 0);
+		if (tag.tagId.equals(old.tagId) && tag.deviceType == old.deviceType) return false;
+		Log.i(getClass().getSimpleName(), "Tag changed to " + tag.tagId + ", " + tag.deviceType);
+		cancelAdvertisingRetry(old);
+		tag.advertisingSetCallback = old.advertisingSetCallback;
+		tag.advertisingSet = old.advertisingSet;
+		tag.advertisingStarted = old.advertisingStarted;
+		tag.replacedCallback = old.replacedCallback;
+		// callbacks of the old tag's sets are ignored from now on
+		old.advertisingSetCallback = null;
+		tags.set(0, tag);
+		return true;
+	}
+	
+	private void removeEmulatedTags(int fromIndex) {
+		try {
+			BluetoothLeAdvertiser bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
+			for (int i = fromIndex; i < tags.size(); i++) stopAdvertisingSet(bluetoothLeAdvertiser, tags.get(i));
+		} catch (QuuppaTagException e) {}
+		while (tags.size() > fromIndex) tags.remove(tags.size() - 1);
+		publishAdvertisedTagIds();
+	}
+	
+	private void publishAdvertisedTagIds() {
+		Set<String> tagIds = new HashSet<>();
+		if (running) for (EmulatedTag tag : tags) tagIds.add(tag.tagId);
+		Set<String> previousTagIds = advertisedTagIds;
+		advertisedTagIds = tagIds;
+		// apps staying dormant for a tag we no longer advertise get to arbitrate again
+		for (String tagId : previousTagIds) if (!tagIds.contains(tagId)) ArbitrationLease.release(this, tagId);
+	}
+	
+	static boolean isAdvertisingTag(String tagId) {
+		return advertisedTagIds.contains(tagId);
+	}
+	
+	static boolean isClaimingTag(String tagId) {
+		return tagId.equals(claimedTagId);
+	}
+	
+	private boolean isAdvertisingStarted() {
+		for (EmulatedTag tag : tags) if (tag.advertisingStarted) return true;
+		return false;
+	}
+	
+	// Parse the zones once, not on every location fix
+	private void loadGeofence() {
+		String zones = QuuppaTag.getGeofenceZones(this);
+		String selectedLocation = QuuppaTag.getSelectedLocation(this);
+		// selected location is a single circle zone with the default radius
+		if (selectedLocation != null) zones = zones == null ? selectedLocation : zones + ";" + selectedLocation;
+		List<String> rejectedZones = new ArrayList<>();
+		geofence = Geofence.parse(zones, LOCATION_MAX_RADIUS_METERS, rejectedZones);
+		for (String rejectedZone : rejectedZones) Log.e(QuuppaTagService.class.getSimpleName(), "Ignoring geofence zone: " + rejectedZone);
+		if (geofence == null && !rejectedZones.isEmpty()) Log.e(QuuppaTagService.class.getSimpleName(), "No valid geofence zones, location gating disabled");
+		distanceToBoundary = Float.NaN;
+	}
+	
+	private void loadWifiMatcher() {
+		Set<String> ssids = new HashSet<>();
+		String selectedWifi = QuuppaTag.getSelectedWifi(this);
+		if (selectedWifi != null) ssids.add(selectedWifi);
+		Set<String> selectedSsids = QuuppaTag.getSelectedWifiSsids(this);
+		if (selectedSsids != null) ssids.addAll(selectedSsids);
+		try {
+			WifiMatcher wifiMatcher = new WifiMatcher(ssids, QuuppaTag.getSelectedWifiBssids(this));
+			this.wifiMatcher = wifiMatcher.isEmpty() ? null : wifiMatcher;
+		} catch (IllegalArgumentException e) {
+			Log.e(QuuppaTagService.class.getSimpleName(), "Invalid Wi-Fi selection, Wi-Fi gating disabled", e);
+			wifiMatcher = null;
+		}
+	}
+	
+	private void loadLocationMode() {
+		passiveLocation = QuuppaTag.isPassiveLocation(this);
+		locationStalenessMs = QuuppaTag.getLocationStalenessMs(this);
+	}
+	
+	private void onLocation(Location location) {
+		lastLocationFix = SystemClock.elapsedRealtime();
+		locationPolicy.onLocation(location);
+		activateWithinLocation(location);
+		if (passiveLocation) {
+			// got a fix, the active request isn't needed anymore
+			if (locationEscalated) {
+				Log.d(getClass().getSimpleName(), "Received a location fix, dropping the active location request");
+				locationManager.removeUpdates(escalationListener);
+				locationEscalated = false;
+			}
+			// the pending alarm checks lastLocationFix when it fires, no need to move it for every fix
+			if (!locationStalenessAlarmSet) scheduleLocationStalenessCheck(lastLocationFix + locationStalenessMs);
+		}
+		updateLocationRequest();
+	}
+	
+	// An alarm rather than a handler callback, outside the fence we hold no wake lock and the CPU may sleep through the budget
+	private void scheduleLocationStalenessCheck(long triggerAtMillis) {
+		getSystemService(AlarmManager.class).setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, 
+				triggerAtMillis, getAlarmIntent(this, IntentAction.QT_LOCATION_CHECK, LOCATION_CHECK_ALARM));
+		locationStalenessAlarmSet = true;
+	}
+	
+	// In passive mode, request a fix actively only if we are near a boundary and haven't received any passive fix in a while
+	private void escalateLocationRequest() {
+		locationStalenessAlarmSet = false;
+		if (!passiveLocation || locationEscalated || geofence == null || locationPolicy.isSuspended()) return;
+		long now = SystemClock.elapsedRealtime();
+		// a passive fix came in after the alarm was set, wait for the rest of its budget
+		if (now - lastLocationFix < locationStalenessMs) {
+			scheduleLocationStalenessCheck(lastLocationFix + locationStalenessMs);
+			return;
+		}
+		// how far the device could have moved since the last fix
+		float reach = locationPolicy.getReachSpeed() * (now - lastLocationFix) / 1000;
+		if (!Float.isNaN(distanceToBoundary) && Math.abs(distanceToBoundary) > reach) {
+			scheduleLocationStalenessCheck(now + locationStalenessMs);
+			return;
+		}
+		Log.d(getClass().getSimpleName(), "No passive location fix within " + locationStalenessMs + " ms near a fence boundary, requesting one");
+		locationEscalated = true;
+		locationManager.requestLocationUpdates(LocationManager.FUSED_PROVIDER, Math.max(ESCALATED_LOCATION_INTERVAL_MS, 
+				locationPolicy.getIntervalMs()), 0, escalationListener);
+	}
 	
 	private void activateWithinLocation(Location currentLocation) {
-		Location selectedLocation = getSelectedLocation();
-		if (selectedLocation == null)
+		Geofence geofence = this.geofence;
+		if (geofence == null)
 			return;
 
-		float distance = currentLocation.distanceTo(selectedLocation);
+		distanceToBoundary = geofence.distanceToBoundary(currentLocation.getLatitude(), currentLocation.getLongitude());
+		// separate enter and exit thresholds, must be inside by the enter margin to enter and outside by the exit margin to exit
+		if (geofenceHysteresis.isActive()) insideGeofence = distanceToBoundary <= geofenceExitMargin;
+		else if (geofenceEnterMargin == 0) insideGeofence = geofence.contains(currentLocation.getLatitude(), currentLocation.getLongitude());
+		else insideGeofence = distanceToBoundary <= -geofenceEnterMargin;
+		applyGeofenceGate();
+	}
+	
+	private void applyGeofenceGate() {
+		handler.removeCallbacks(geofenceGateCheck);
+		long now = SystemClock.elapsedRealtime();
+		boolean inside = geofenceHysteresis.update(insideGeofence, now);
+		// re-check when the dwell time is over, there may not be another fix by then
+		long deadline = geofenceHysteresis.getPendingDeadline();
+		if (deadline >= 0) handler.postDelayed(geofenceGateCheck, deadline - now);
+		
+		ActivationRule activationRule = this.activationRule;
+		if (activationRule == null) return;
+		activationRule.setInput(ActivationRule.INPUT_GEOFENCE, inside);
+		applyActivationRule(inside ? "as device entered selected location radius" : "as device exited selected location radius");
+	}
+	
+	private void loadActivationRule() {
+		ActivationRule activationRule = null;
+		try {
+			activationRule = ActivationRule.parse(QuuppaTag.getActivationRule(this));
+		} catch (IllegalArgumentException e) {
+			Log.e(QuuppaTagService.class.getSimpleName(), "Invalid activation rule, using the default rule", e);
+		}
+		// By default, active when in any of the geofence zones or selected Wi-Fi networks
+		if (activationRule == null && (geofence != null || wifiMatcher != null)) 
+			activationRule = ActivationRule.parse(geofence == null ? "wifi" : wifiMatcher == null ? "geofence" : "geofence | wifi");
+		this.activationRule = activationRule;
+		
+		// start over with the gates, they feed the new rule on the next fix or network evaluation
+		geofenceHysteresis.reset();
+		wifiHysteresis.reset();
+		lastWifiState = -1;
+		scheduleNetworkEvaluation();
+		
+		// the new rule needs the current battery state
+		if (batteryReceiverRegistered) onBatteryChanged(registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+		else updateBatteryReceiver();
+		
+		updateTimeInput();
+		applyActivationRule("by activation rule");
+	}
+	
+	// Battery state is needed while broadcasting for the power tier, and otherwise only if the rule has battery conditions
+	private void updateBatteryReceiver() {
+		ActivationRule activationRule = this.activationRule;
+		boolean needed = inputsRegistered && (running || activationRule != null && (activationRule.usesInput(ActivationRule.INPUT_CHARGING) 
+				|| activationRule.usesInput(ActivationRule.INPUT_BATTERY)));
+		if (needed && !batteryReceiverRegistered) {
+			batteryReceiverRegistered = true;
+			// the battery state is sticky, so we get the current state right away
+			onBatteryChanged(registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+		}
+		else if (!needed && batteryReceiverRegistered) {
+			unregisterReceiver(batteryReceiver);
+			batteryReceiverRegistered = false;
+		}
+	}
+	
+	private void onBatteryChanged(Intent intent) {
+		if (intent == null) return;
+		boolean tierChanged = powerPolicy.update(intent);
+		ActivationRule activationRule = this.activationRule;
+		if (activationRule != null) {
+			activationRule.setInput(ActivationRule.INPUT_BATTERY, powerPolicy.getLevel());
+			activationRule.setInput(ActivationRule.INPUT_CHARGING, powerPolicy.isCharging());
+			applyActivationRule("because of battery state");
+		}
+		if (tierChanged) applyPowerTier();
+	}
+	
+	private void loadPowerPolicy() {
+		powerPolicy.configure(QuuppaTag.getPowerSaverBatteryLevel(this), QuuppaTag.getPowerCriticalBatteryLevel(this));
+	}
+	
+	private void applyPowerTier() {
+		PowerTier tier = powerPolicy.getTier();
+		Log.i(getClass().getSimpleName(), "Power tier " + tier + " at battery level " + powerPolicy.getLevel() + "%, charging " + powerPolicy.isCharging());
+		reconfigureAdvertising();
+	}
+	
+	// Switch the sensor rate and advertising in one go, the stationary threshold is picked up on the next check
+	private void reconfigureAdvertising() {
+		if (!running) return;
+		registerAccelerometer();
+		if (isAdvertisingStarted()) {
+			updateAdvertisingSets();
+		}
+	}
+	
+	private void registerThermalStatusListener() {
+		if (thermalStatusListenerClass == null || thermalStatusListener != null) return;
+		thermalStatusListener = Proxy.newProxyInstance(thermalStatusListenerClass.getClassLoader(), new Class<?>[] { thermalStatusListenerClass }, 
+				new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "onThermalStatusChanged":
+					onThermalStatusChanged((Integer) args[0]);
+					return null;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return "ThermalStatusListener";
+				}
+			}
+		});
+		PowerManager powerManager = getSystemService(PowerManager.class);
+		try {
+			// called back on the main thread
+			addThermalStatusListenerMethod.invoke(powerManager, thermalStatusListener);
+			thermalThrottle.setStatus((Integer) getCurrentThermalStatusMethod.invoke(powerManager), SystemClock.elapsedRealtime());
+		} catch (Exception e) {
+			Log.e(getClass().getSimpleName(), "Couldn't register thermal status listener: " + e.getMessage());
+			thermalStatusListener = null;
+		}
+	}
+	
+	private void unregisterThermalStatusListener() {
+		if (thermalStatusListener == null) return;
+		try {
+			removeThermalStatusListenerMethod.invoke(getSystemService(PowerManager.class), thermalStatusListener);
+		} catch (Exception e) {}
+		thermalStatusListener = null;
+		thermalThrottle.reset(SystemClock.elapsedRealtime());
+	}
+	
+	private void onThermalStatusChanged(int status) {
+		if (!thermalThrottle.setStatus(status, SystemClock.elapsedRealtime())) return;
+		Log.i(getClass().getSimpleName(), "Thermal status " + status + ", throttling advertising and sensing by " + thermalThrottle.getSteps() + " steps");
+		reconfigureAdvertising();
+	}
+	
+	private void registerDeviceStateReceiver() {
+		if (deviceStateReceiverRegistered) return;
+		IntentFilter filter = new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+		filter.addAction(Intent.ACTION_SCREEN_ON);
+		filter.addAction(Intent.ACTION_USER_PRESENT);
+		registerReceiver(deviceStateReceiver, filter);
+		deviceStateReceiverRegistered = true;
+		deviceIdle = getSystemService(PowerManager.class).isDeviceIdleMode();
+	}
+	
+	private void unregisterDeviceStateReceiver() {
+		if (!deviceStateReceiverRegistered) return;
+		unregisterReceiver(deviceStateReceiver);
+		deviceStateReceiverRegistered = false;
+		deviceIdle = false;
+	}
+	
+	private void registerBluetoothStateReceiver() {
+		if (bluetoothStateReceiverRegistered) return;
+		registerReceiver(bluetoothStateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+		bluetoothStateReceiverRegistered = true;
+		BluetoothAdapter adapter = ((BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+		bluetoothOff = adapter == null || adapter.getState() != BluetoothAdapter.STATE_ON;
+		bluetoothOnAt = 0;
+		if (bluetoothOff) sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
+	}
+	
+	private void unregisterBluetoothStateReceiver() {
+		if (!bluetoothStateReceiverRegistered) return;
+		unregisterReceiver(bluetoothStateReceiver);
+		bluetoothStateReceiverRegistered = false;
+		bluetoothOff = false;
+		bluetoothOnAt = 0;
+	}
+	
+	// Sets don't survive Bluetooth going off, so drop them and start new ones right away when it's back on
+	private void onBluetoothStateChanged(int state) {
+		if (!running) return;
+		if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+			if (bluetoothOff) return;
+			Log.i(getClass().getSimpleName(), "Bluetooth turned off, advertising paused");
+			bluetoothOff = true;
+			bluetoothOnAt = 0;
+			for (EmulatedTag tag : tags) {
+				cancelAdvertisingRetry(tag);
+				tag.advertisingSetCallback = null;
+				tag.replacedCallback = null;
+				tag.offAirSince = 0;
+				tag.advertisingSet = null;
+				tag.advertisingStarted = false;
+				tag.publishedData = null;
+				tag.inFlightData = null;
+				tag.pendingData = null;
+				tag.livenessCheckPending = false;
+			}
+			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
+		}
+		else if (state == BluetoothAdapter.STATE_ON && bluetoothOff) {
+			Log.i(getClass().getSimpleName(), "Bluetooth turned on, resuming advertising");
+			bluetoothOff = false;
+			bluetoothOnAt = SystemClock.elapsedRealtime();
+			// multiple advertisement support is only known while Bluetooth is on
+			loadEmulatedTags();
+			publishAdvertisedTagIds();
+			startAdvertisingSet();
+		}
+	}
+	
+	// System signals as motion priors: idle means stationary, screen on or unlocking means likely in hand
+	private void onDeviceStateChanged(String action) {
+		if (!running) return;
+		if (PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED.equals(action)) {
+			deviceIdle = getSystemService(PowerManager.class).isDeviceIdleMode();
+			if (deviceIdle) enterDeviceIdle();
+			else registerAccelerometer();
+		}
+		else if (Intent.ACTION_USER_PRESENT.equals(action)) {
+			deviceIdle = false;
+			registerAccelerometer();
+			Log.v(getClass().getSimpleName(), "User present, was moving " + moving);
+			lastMoved = System.currentTimeMillis();
+			if (!moving) adjustAdvertisingSchedule(IntentAction.QT_MOVING);
+		}
+		else if (Intent.ACTION_SCREEN_ON.equals(action)) {
+			// sample already, the device is likely to be picked up
+			deviceIdle = false;
+			registerAccelerometer();
+		}
+	}
+	
+	// Go stationary right away instead of waiting out the stationary threshold, and stop sampling until the device wakes up
+	private void enterDeviceIdle() {
+		Log.d(getClass().getSimpleName(), "Device idle, unregistering accelerometer, was moving " + moving);
+		sensorManager.unregisterListener(this, accelerometer);
+		sensorDelay = 0;
+		stopMotionConfirmation();
+		stopStationaryCheckAlarm();
+		lastMoved = System.currentTimeMillis() - getStationaryThresholdMs();
+		if (!moving) return;
+		moving = false;
+		if (geofence != null) updateLocationRequest();
+		updateAdvertisingSets();
+	}
+	
+	private int getAdvertisingInterval(EmulatedTag tag, boolean moving) {
+		if (isOnsetBurst(tag, moving)) return AdvertisingSetParameters.INTERVAL_MIN;
+		return getSettledAdvertisingInterval(tag, moving);
+	}
+	
+	// the interval outside the onset burst
+	private int getSettledAdvertisingInterval(EmulatedTag tag, boolean moving) {
+		PowerTier tier = powerPolicy.getTier();
+		int interval = moving ? tier.movingInterval << motionClass.intervalShift : tier.stationaryInterval;
+		return thermalThrottle.throttleInterval(interval << tag.intervalShift);
+	}
+	
+	// tags with a lower rate of their own don't burst, and there's nothing to burst if the tier and motion class already advertise 
+	// at the highest rate
+	private boolean isOnsetBurst(EmulatedTag tag, boolean moving) {
+		return moving && tag.intervalShift == 0 && System.currentTimeMillis() < onsetBurstUntil 
+				&& getSettledAdvertisingInterval(tag, moving) > AdvertisingSetParameters.INTERVAL_MIN;
+	}
+	
+	private void startOnsetBurst() {
+		long burstMs = QuuppaTag.getOnsetBurstMs(this);
+		if (burstMs <= 0 || powerPolicy.getTier() == PowerTier.CRITICAL || thermalThrottle.getSteps() > 0) return;
+		onsetBurstUntil = System.currentTimeMillis() + burstMs;
+		handler.removeCallbacks(onsetBurstEnd);
+		handler.postDelayed(onsetBurstEnd, burstMs);
+	}
+	
+	private void stopOnsetBurst() {
+		onsetBurstUntil = 0;
+		handler.removeCallbacks(onsetBurstEnd);
+	}
+	
+	private void registerAccelerometer() {
+		if (deviceIdle) return;
+		int newSensorDelay = thermalThrottle.throttleSensorDelay(powerPolicy.getTier().sensorDelay);
+		if (newSensorDelay == sensorDelay) return;
+		if (sensorDelay != 0) sensorManager.unregisterListener(this, accelerometer);
+		// sample rate changes, start over with a new window and noise floor
+		motionClassifier.reset();
+		noiseFloorCalibrator.reset();
+		sensorDelay = newSensorDelay;
+		sensorManager.registerListener(this, accelerometer, sensorDelay);
+	}
+	
+	private long getStationaryThresholdMs() {
+		return Math.min(STATIONARY_TRESHOLD_MS, powerPolicy.getTier().maxStationaryThresholdMs);
+	}
+	
+	private long getStationaryCheckDelay() {
+		return getStationaryThresholdMs() + STATIONARY_CHECK_MARGIN_MS;
+	}
+	
+	// Sets the time of day in the operating time zone and wakes up the service at the next time boundary of the rule
+	private void updateTimeInput() {
+		AlarmManager alarmManager = getSystemService(AlarmManager.class);
+		ActivationRule activationRule = this.activationRule;
+		if (activationRule == null || !activationRule.usesInput(ActivationRule.INPUT_TIME)) {
+			alarmManager.cancel(getAlarmIntent(this, IntentAction.QT_RULE_CHECK, RULE_CHECK_ALARM));
+			return;
+		}
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(operatingZone));
+		int minuteOfDay = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+		activationRule.setInput(ActivationRule.INPUT_TIME, minuteOfDay);
 		
-		boolean wasActive = active;
-		active = distance <= LOCATION_MAX_RADIUS_METERS; 
-		if (active != wasActive) {
-			if (active) {
-    			Log.i(getClass().getSimpleName(), "Activated broadcasting as device entered selected location radius");
-				startForegroundService(new Intent(this, QuuppaTagService.class));
-			} else {
-    			Log.i(getClass().getSimpleName(), "Deactivated broadcasting as device exited selected location radius");
-				stop();
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.MINUTE, activationRule.minutesToNextTimeBoundary(minuteOfDay));
+		// a minute late doesn't matter, no need for an exact alarm
+		alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, calendar.getTimeInMillis(), 
+				getAlarmIntent(this, IntentAction.QT_RULE_CHECK, RULE_CHECK_ALARM));
+	}
+	
+	// The rule decides, the gates and other inputs only feed it
+	private void applyActivationRule(String reason) {
+		if (!enabled) return;
+		ActivationRule activationRule = this.activationRule;
+		boolean ruleActive = activationRule == null || activationRule.isActive();
+		if (ruleActive != active) setActive(ruleActive, reason);
+	}
+	
+	private void setActive(boolean active, String reason) {
+		boolean wasRunning = running;
+		this.active = active;
+		if (!active) {
+			stop();
+			if (wasRunning) Log.i(getClass().getSimpleName(), "Deactivated broadcasting " + reason);
+		}
+		else if (!wasRunning) {
+			startForegroundService(new Intent(this, QuuppaTagService.class));
+			Log.i(getClass().getSimpleName(), "Activated broadcasting " + reason);
+		}
+	}
+	
+	private void loadOperatingSchedule() {
+		String timeZone = QuuppaTag.getOperatingTimeZone(this);
+		try {
+			// the activation rule's time of day follows the zone even without a schedule
+			operatingZone = OperatingSchedule.parseTimeZone(timeZone);
+			operatingSchedule = OperatingSchedule.parse(QuuppaTag.getOperatingSchedule(this), timeZone);
+		} catch (IllegalArgumentException e) {
+			Log.e(QuuppaTagService.class.getSimpleName(), "Invalid operating schedule or time zone, operating all the time in the device time zone", e);
+			operatingZone = ZoneId.systemDefault();
+			operatingSchedule = null;
+		}
+		// the alarm needs to be updated for the new schedule
+		scheduleBoundary = Long.MIN_VALUE;
+	}
+	
+	// Keeps exactly one alarm set at the next schedule boundary, whether we are within a window or not
+	// @return true if within the operating schedule
+	private boolean updateOperatingSchedule() {
+		OperatingSchedule operatingSchedule = this.operatingSchedule;
+		long now = System.currentTimeMillis();
+		long boundary = operatingSchedule == null ? -1 : operatingSchedule.getNextBoundary(now);
+		if (boundary != scheduleBoundary) {
+			scheduleBoundary = boundary;
+			AlarmManager alarmManager = getSystemService(AlarmManager.class);
+			if (boundary < 0) alarmManager.cancel(getAlarmIntent(this, IntentAction.QT_SCHEDULE_CHECK, SCHEDULE_CHECK_ALARM));
+			// the service needs to get back to foreground at the start of a shift
+			else setWakeUpAlarm(this, boundary, getAlarmIntent(this, IntentAction.QT_SCHEDULE_CHECK, SCHEDULE_CHECK_ALARM));
+		}
+		return operatingSchedule == null || operatingSchedule.isOpen(now);
+	}
+	
+	// Prefers an exact alarm if allowed, both kinds are deferred in Doze
+	private static void setWakeUpAlarm(Context context, long triggerAtMillis, PendingIntent operation) {
+		AlarmManager alarmManager = context.getSystemService(AlarmManager.class);
+		boolean exact = Build.VERSION.SDK_INT < 31;
+		if (!exact) try {
+			exact = (boolean) AlarmManager.class.getMethod("canScheduleExactAlarms").invoke(alarmManager);
+		} catch (Exception e) {}
+		if (exact) alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAtMillis, operation);
+		else alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAtMillis, operation);
+	}
+	
+	/*
+	 * For the alarms that may find the service stopped, dormant or in the background: only a foreground service start is allowed 
+	 * from the background on API 26+, onStartCommand() answers it with startForeground() before anything else.
+	 */
+	static PendingIntent getAlarmIntent(Context context, IntentAction intentAction, int requestCode) {
+		Intent intent = new Intent(context, QuuppaTagService.class);
+		intent.setAction(intentAction.fullyQualifiedName());
+		return PendingIntent.getForegroundService(context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+	}
+	
+	/*
+	 * Checks whether another app embedding the library advertises our tag, when the service starts and when the lease of the app 
+	 * we stayed dormant for has ended. The other apps are asked in the background and the result is handled on the main thread.
+	 */
+	private void checkArbitration() {
+		arbitrationCheckPending = true;
+		final String tagId = QuuppaTag.getOrInitTagId(this);
+		claimedTagId = tagId;
+		ArbitrationLease.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final ArbitrationLease.Leader leader = ArbitrationLease.findLeader(QuuppaTagService.this, tagId);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						onArbitrationChecked(leader);
+					}
+				});
 			}
+		});
+	}
+	
+	private void onArbitrationChecked(ArbitrationLease.Leader leader) {
+		// stopped in the meantime
+		if (!arbitrationCheckPending) return;
+		arbitrationCheckPending = false;
+		claimedTagId = null;
+		// the one already advertising keeps the tag, if several are the lowest package name does
+		if (leader != null && running && leader.packageName.compareTo(getPackageName()) > 0) leader = null;
+		ArbitrationLease.follow(this, leader == null ? null : leader.token);
+		if (leader != null) {
+			arbitrationWaitingIntents.clear();
+			enterDormancy("Tag advertised by " + leader.packageName + ", dormant until it releases the tag");
+			return;
+		}
+		arbitrated = true;
+		List<Intent> intents = new ArrayList<>(arbitrationWaitingIntents);
+		arbitrationWaitingIntents.clear();
+		for (Intent intent : intents) handleStartIntent(intent);
+	}
+	
+	/**
+	 * Wakes up the service of a follower to arbitrate again, with an alarm since only alarms may start a foreground service from 
+	 * the background on API 31+
+	 */
+	static void requestArbitrationCheck(Context context) {
+		setWakeUpAlarm(context, System.currentTimeMillis(), getAlarmIntent(context, IntentAction.QT_ARBITRATION_CHECK, ARBITRATION_CHECK_ALARM));
+	}
+	
+	// Off-hours wake up only once, at the start of the next window, arbitration resumes from there
+	private void enterScheduleDormancy() {
+		enterDormancy("Outside operating schedule, dormant until " + (scheduleBoundary < 0 ? "schedule changes" : new Date(scheduleBoundary)));
+	}
+	
+	// Outside the operating schedule or not the arbitration leader, tear everything down and leave only the alarms
+	private void enterDormancy(String reason) {
+		Log.i(getClass().getSimpleName(), reason);
+		dormant = true;
+		if (running) {
+			stop();
+			sendBroadcast(new Intent(IntentAction.QT_STOPPED.fullyQualifiedName()));
 		}
+		unregisterActivationInputs();
+		stopForeground(true);
+		stopSelf();
+	}
+	
+	private void registerActivationInputs() {
+		dormant = false;
+		if (inputsRegistered) return;
+		inputsRegistered = true;
+        // Don't register at all on lower API levels because the networkCallback.onCapabilitiesChanged() uses getTransportInfo() 
+		// deliver callbacks on the main thread so they are serialized with everything else
+		if (Build.VERSION.SDK_INT >= 29) connectivityManager.registerNetworkCallback(networkRequest, networkCallback, handler);
+		loadActivationRule();
+	}
+	
+	private void unregisterActivationInputs() {
+		if (!inputsRegistered) return;
+		inputsRegistered = false;
+		if (Build.VERSION.SDK_INT >= 29) connectivityManager.unregisterNetworkCallback(networkCallback);
+		currentNetwork = null;
+		currentNetworkCapabilities = null;
+		handler.removeCallbacks(networkEvaluation);
+		networkEvaluationPosted = false;
+		handler.removeCallbacks(wifiGateCheck);
+		handler.removeCallbacks(geofenceGateCheck);
+		if (batteryReceiverRegistered) unregisterReceiver(batteryReceiver);
+		batteryReceiverRegistered = false;
+		getSystemService(AlarmManager.class).cancel(getAlarmIntent(this, IntentAction.QT_RULE_CHECK, RULE_CHECK_ALARM));
+		unregisterLocationListener();
+	}
+	
+	private void loadGatingPolicy() {
+		geofenceEnterMargin = QuuppaTag.getGeofenceEnterMargin(this);
+		geofenceExitMargin = QuuppaTag.getGeofenceExitMargin(this);
+		long enterDwellMs = QuuppaTag.getGatingEnterDwellMs(this);
+		geofenceHysteresis.configure(enterDwellMs, QuuppaTag.getGatingExitDwellMs(this));
+		wifiHysteresis.configure(enterDwellMs, QuuppaTag.getWifiLossGraceMs(this));
 	}
 
 	@Override
@@ -284,12 +1367,37 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		    };
         }
 		
-        connectivityManager = getSystemService(ConnectivityManager.class);
-        // Don't register at all on lower API levels because the networkCallback.onCapabilitiesChanged() uses getTransportInfo() 
-		if (Build.VERSION.SDK_INT >= 29) connectivityManager.registerNetworkCallback(networkRequest, networkCallback);
-		
+		handler = new Handler(Looper.getMainLooper());
+		advertisingRetry = new AdvertisingRetry(new AdvertisingRetry.Scheduler() {
+			@Override
+			public void postDelayed(Runnable runnable, long delayMs) {
+				handler.postDelayed(runnable, delayMs);
+			}
+
+			@Override
+			public void removeCallbacks(Runnable runnable) {
+				handler.removeCallbacks(runnable);
+			}
+		}, new AdvertisingRetry.Starter() {
+			@Override
+			public void start(EmulatedTag tag) {
+				if (!running || !tags.contains(tag)) return;
+				startAdvertisingSet(tag, getAdvertisingSetTxPower());
+			}
+		}, new Random());
+		enabled = isEnabled();
+		networkDebounceMs = QuuppaTag.getNetworkDebounceMs(this);
 		
+        connectivityManager = getSystemService(ConnectivityManager.class);
 		locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+		loadGeofence();
+		loadLocationMode();
+		loadWifiMatcher();
+		loadGatingPolicy();
+		loadOperatingSchedule();
+		loadPowerPolicy();
+		thermalThrottle.configure(QuuppaTag.getThermalThrottlingStatus(this), SystemClock.elapsedRealtime());
+		getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE).registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 		
 		ICON = Icon.createWithResource(this, android.R.drawable.ic_menu_mylocation); //  only mylocation available in 8, otherwise could also use perm_group_location as default
 
@@ -309,18 +1417,47 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 				.setContentIntent(pendingIntent).build();
 	}
 	
-	private void registerLocationListener() {
+	// Scale the location request with the distance to the nearest fence boundary and speed, suspend while stationary.
+	// Only touches LocationManager when the request actually changes
+	private void updateLocationRequest() {
 //        Criteria criteria = new Criteria();
 //        criteria.setAccuracy(Criteria.ACCURACY_COARSE);
 //        String bestProvider = locationManager.getBestProvider(criteria, true);
-		locationManager.requestLocationUpdates(LocationManager.FUSED_PROVIDER, 10000, 0, locationListener);
+		// motion state is only known while the accelerometer is registered
+		boolean stationary = running && !moving;
+		if (!locationPolicy.update(distanceToBoundary, stationary)) return;
+		
+		if (locationPolicy.isSuspended()) {
+			Log.d(getClass().getSimpleName(), "Suspended location updates while stationary");
+			removeLocationUpdates();
+		}
+		else {
+			String provider = passiveLocation ? LocationManager.PASSIVE_PROVIDER : LocationManager.FUSED_PROVIDER;
+			Log.d(getClass().getSimpleName(), "Requesting " + provider + " location updates every " + locationPolicy.getIntervalMs() 
+					+ " ms, min distance " + locationPolicy.getMinDistanceMeters() + " m");
+			locationManager.requestLocationUpdates(provider, locationPolicy.getIntervalMs(), 
+					locationPolicy.getMinDistanceMeters(), locationListener);
+			if (passiveLocation && !locationEscalated && !locationStalenessAlarmSet) 
+				scheduleLocationStalenessCheck(SystemClock.elapsedRealtime() + locationStalenessMs);
+		}
 	}
-	private void unregisterLocationListener() {
+	
+	private void removeLocationUpdates() {
 		locationManager.removeUpdates(locationListener);
+		locationManager.removeUpdates(escalationListener);
+		locationEscalated = false;
+		if (locationStalenessAlarmSet) 
+			getSystemService(AlarmManager.class).cancel(getAlarmIntent(this, IntentAction.QT_LOCATION_CHECK, LOCATION_CHECK_ALARM));
+		locationStalenessAlarmSet = false;
+	}
+	
+	private void unregisterLocationListener() {
+		removeLocationUpdates();
+		locationPolicy.reset();
 	}
 	
 	private void init() {
-		deviceType = QuuppaTag.getOrInitDeviceType(this);
+		loadEmulatedTags();
 
         alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
         if ((Build.VERSION.SDK_INT >= 31))
@@ -339,29 +1476,46 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 			} catch (NoSuchMethodException e) {}
         
 		lastMoved = System.currentTimeMillis();
+		// a fresh start counts as motion onset, helps the locators pick up the tag after activation
+		moving = true;
 		shakeThreshold = QuuppaTag.getShakeThreshold(this);
+		shakeThresholdCalibration = QuuppaTag.isShakeThresholdCalibration(this);
         
 		sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
 		
+		// pick the power tier before configuring anything, the receiver keeps it up to date once running
+		Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (batteryStatus != null) powerPolicy.update(batteryStatus);
+		registerThermalStatusListener();
+		registerDeviceStateReceiver();
+		registerBluetoothStateReceiver();
+		
 		accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+		confirmationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+		if (confirmationSensor == null) confirmationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+		motionConfirmation = QuuppaTag.isMotionConfirmation(this);
+		pressureSensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+		registerPressureSensor();
+		sensorDelay = 0;
+		registerAccelerometer();
 		
+		startOnsetBurst();
 		startAdvertisingSet();
-		startStationaryCheckAlarm(STATIONARY_CHECK_DELAY);
+		startStationaryCheckAlarm(getStationaryCheckDelay());
 
 		// Acquire wake lock
 		PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
 		wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "QuuppaTagService::WakeLock");
 		wakeLock.acquire();
 		running = true;
+		publishAdvertisedTagIds();
+		updateBatteryReceiver();
 	}
 
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		Log.d(getClass().getSimpleName(), "Start service called with intent action " + (intent == null ? null : intent.getAction()));
 
-		if (!isEnabled()) return START_NOT_STICKY;
-		
 		if (Build.VERSION.SDK_INT >= 34) // Build.VERSION_CODES.UPSIDE_DOWN_CAKE 
 		{
             // startForeground(1, notification, 8) 
@@ -383,9 +1537,41 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		}
         else startForeground(1, notification);
 		
-		if (QuuppaTag.getSelectedLocation(this) != null) registerLocationListener();
+		if (!isEnabled()) {
+			// alarms start us with startForegroundService(), which must be answered with startForeground() even if we stop right away
+			stopForeground(true);
+			stopSelf();
+			return START_NOT_STICKY;
+		}
+		
+		if (!updateOperatingSchedule()) {
+			enterScheduleDormancy();
+			// only the schedule alarm brings us back
+			return START_NOT_STICKY;
+		}
+		if (intent != null && IntentAction.QT_ARBITRATION_CHECK.fullyQualifiedName().equals(intent.getAction())) arbitrated = false;
+		// arbitrate when starting and when woken up by the lease, the intent is handled once the other apps have answered
+		if (!arbitrated && QuuppaTag.isArbitration(this)) {
+			arbitrationWaitingIntents.add(intent);
+			if (!arbitrationCheckPending) checkArbitration();
+			return START_STICKY;
+		}
+		arbitrated = true;
+		return handleStartIntent(intent);
+	}
+	
+	private int handleStartIntent(Intent intent) {
+		registerActivationInputs();
+		
+		if (intent != null && IntentAction.QT_LOCATION_CHECK.fullyQualifiedName().equals(intent.getAction())) escalateLocationRequest();
+		if (geofence != null) updateLocationRequest();
 		else unregisterLocationListener();
 		
+		if (intent != null && IntentAction.QT_RULE_CHECK.fullyQualifiedName().equals(intent.getAction())) {
+			updateTimeInput();
+			applyActivationRule("by activation rule time of day");
+		}
+		
 		if (!active) return START_STICKY;
 		
 		boolean wasRunning = running;
@@ -407,11 +1593,6 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		return QuuppaTag.isServiceEnabled(this);
 	}
 	
-    private boolean isConditionallyActive() {
-        SharedPreferences sharedPrefs = getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE);
-        return sharedPrefs.getString(QuuppaTag.PREFS_SELECTED_LOCATION, null) != null  || sharedPrefs.getString(QuuppaTag.PREFS_SELECTED_WIFI, null) != null;
-    }
-	
 
 	protected void adjustAdvertisingSchedule(IntentAction intentAction) {
 		if (!running) return;
@@ -421,53 +1602,57 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		} catch (Exception e) {}
 		
 		boolean wasMoving = moving;
-		moving = (System.currentTimeMillis() - lastMoved < STATIONARY_TRESHOLD_MS);
+		long now = System.currentTimeMillis();
+		moving = now - lastMoved < getStationaryThresholdMs() || now < forcedMovingUntil;
+		if (moving != wasMoving && geofence != null) updateLocationRequest();
 		// from periodic check, always schedule next while moving
-		if (IntentAction.QT_STATIONARY_CHECK.equals(intentAction) && moving) startStationaryCheckAlarm(STATIONARY_CHECK_DELAY);
+		if (IntentAction.QT_STATIONARY_CHECK.equals(intentAction) && moving) startStationaryCheckAlarm(getStationaryCheckDelay());
+		if (IntentAction.QT_STATIONARY_CHECK.equals(intentAction)) checkAdvertisingLiveness();
 		
-		if (!advertisingStarted)
+		if (!isAdvertisingStarted())
 			startAdvertisingSet();
 		else if (moving != wasMoving) {
 			Log.v(getClass().getSimpleName(), "adjustAdvertisingSchedule() changed moving to " + moving);
 			// moved the first time after being stationary, start stationary checks
 			if (IntentAction.QT_MOVING.equals(intentAction) && moving) {
-				startStationaryCheckAlarm(STATIONARY_CHECK_DELAY);
-				stopAdvertisingSet();
-				startAdvertisingSet();
+				startStationaryCheckAlarm(getStationaryCheckDelay());
+				startOnsetBurst();
+				updateAdvertisingSets();
 			}
-			else if (advertisingSet != null && IntentAction.QT_STATIONARY_CHECK.equals(intentAction) && !moving) {
+			else if (tags.get(0).advertisingSet != null && IntentAction.QT_STATIONARY_CHECK.equals(intentAction) && !moving) {
 				// first detected as stopped after moving, adjust the advertising data to send stationary
 				// for a few secs, then switch to stationary
 				startStationaryCheckAlarm(ADVERTISINGSET_ADJUST_DELAY);
 				
-				AdvertiseData advertiseData = null;
-				try {
-					advertiseData = createAdvertiseData();
-				} catch (QuuppaTagException e) {
-					// this should only fail in case of an IOException
-					e.printStackTrace();
-					sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
-					return;
-				}
-				AdvertisingSet advertisingSet = this.advertisingSet;
-				// these should not be null but in case they were, just restart advertising immediately
-				if (advertiseData != null & advertisingSet != null) advertisingSet.setAdvertisingData(advertiseData);
-				else {
-					stopAdvertisingSet();
-					startAdvertisingSet();
+				for (EmulatedTag tag : tags) {
+					byte[] data = null;
+					try {
+						// TX power stays until the rate is switched
+						data = createManufacturerData(tag, tag.advertisingSetParameters.getTxPowerLevel());
+					} catch (QuuppaTagException e) {
+						// this should only fail in case of an IOException
+						e.printStackTrace();
+						sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
+						return;
+					}
+					AdvertisingSet advertisingSet = tag.advertisingSet;
+					// these should not be null but in case they were, just restart advertising immediately
+					if (data != null & advertisingSet != null) updateAdvertisingData(tag, advertisingSet, data);
+					else {
+						replaceAdvertisingSets();
+						return;
+					}
 				}
 			}
 		}
 		else if (IntentAction.QT_RESTART.equals(intentAction)) {
-			stopAdvertisingSet();
-			startAdvertisingSet();
+			replaceAdvertisingSets();
 		}
-		else if (!moving && advertisingSetParameters.getInterval() < ADVERTISING_INTERVAL_STATIONARY) {
+		else if (!moving && tags.get(0).advertisingSetParameters.getInterval() < getAdvertisingInterval(tags.get(0), false)) {
 			// We are already stationary but have not yet adjusted to the lower advertising rate
 			
 			// Do not start any StationaryCheckAlarm anymore, just rely on the accelerator to adjust the advertising rate
-			stopAdvertisingSet();
-			startAdvertisingSet();
+			updateAdvertisingSets();
 		}
 	}
 
@@ -505,8 +1690,7 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		try {
 			BluetoothLeAdvertiser bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
 			Log.d(getClass().getSimpleName(), "stopAdvertisingSet");
-			bluetoothLeAdvertiser.stopAdvertisingSet(advertisingSetCallback);
-			advertisingStarted = false;
+			for (EmulatedTag tag : tags) stopAdvertisingSet(bluetoothLeAdvertiser, tag);
 		} catch (QuuppaTagException e) {
 			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
 			return;
@@ -514,9 +1698,39 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 
 	}
 	
-	private AdvertiseData createAdvertiseData() throws QuuppaTagException {
-		String tagId = QuuppaTag.getOrInitTagId(this);
-		byte[] bytes = QuuppaTag.createQuuppaDFPacketAdvertiseData(tagId, deviceType, moving);
+	private void stopAdvertisingSet(BluetoothLeAdvertiser bluetoothLeAdvertiser, EmulatedTag tag) {
+		if (tag.replacedCallback != null) bluetoothLeAdvertiser.stopAdvertisingSet(tag.replacedCallback);
+		tag.replacedCallback = null;
+		tag.offAirSince = 0;
+		if (tag.advertisingSetCallback == null) return;
+		bluetoothLeAdvertiser.stopAdvertisingSet(tag.advertisingSetCallback);
+		tag.advertisingSetCallback = null;
+		tag.advertisingStarted = false;
+		tag.publishedData = null;
+		tag.inFlightData = null;
+		tag.pendingData = null;
+	}
+	
+	// Each update is a binder call and a controller command, so only send changed data, one update at a time
+	private void updateAdvertisingData(EmulatedTag tag, AdvertisingSet advertisingSet, byte[] data) {
+		if (tag.inFlightData != null) {
+			// only the latest one matters, nothing to queue if it's already on its way
+			tag.pendingData = Arrays.equals(data, tag.inFlightData) ? null : data;
+			return;
+		}
+		if (Arrays.equals(data, tag.publishedData)) {
+			QuuppaTagMetrics.incrementSkippedAdvertisingDataUpdates();
+			return;
+		}
+		tag.inFlightData = data;
+		advertisingSet.setAdvertisingData(createAdvertiseData(data));
+	}
+	
+	private byte[] createManufacturerData(EmulatedTag tag, int txPower) throws QuuppaTagException {
+		return QuuppaTag.createQuuppaDFPacketAdvertiseData(tag.tagId, tag.deviceType, moving, txPower);
+	}
+	
+	private static AdvertiseData createAdvertiseData(byte[] bytes) {
 		// Neither txpower level nor device name doesn't fit in legacy mode with our manufacturer data
 		return new AdvertiseData.Builder()
 				.setIncludeTxPowerLevel(false)
@@ -526,29 +1740,130 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 
 	// never throw exception but send error broadcasts that can be listened to
 	protected void startAdvertisingSet() {
+		// resumed by the Bluetooth state receiver
+		if (bluetoothOff) return;
+		int advertisingSetTxPower = getAdvertisingSetTxPower();
+		for (EmulatedTag tag : tags) {
+			// restarted by its retry
+			if (tag.isFailing()) continue;
+			if (!startAdvertisingSet(tag, advertisingSetTxPower)) return;
+		}
+	}
+	
+	/*
+	 * Make before break: a new set is started while the old one stays on air, the old one is stopped once the new one has started. 
+	 * If the controller has no room for both, the old one is stopped first and the time off air is measured.
+	 */
+	private void replaceAdvertisingSets() {
+		if (bluetoothOff) return;
+		BluetoothLeAdvertiser bluetoothLeAdvertiser;
+		try {
+			bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
+		} catch (QuuppaTagException e) {
+			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
+			return;
+		}
+		Log.d(getClass().getSimpleName(), "replaceAdvertisingSets");
+		int advertisingSetTxPower = getAdvertisingSetTxPower();
+		for (EmulatedTag tag : tags) if (!tag.isFailing() && !replaceAdvertisingSet(bluetoothLeAdvertiser, tag, advertisingSetTxPower)) return;
+	}
+	
+	private boolean replaceAdvertisingSet(BluetoothLeAdvertiser bluetoothLeAdvertiser, EmulatedTag tag, int advertisingSetTxPower) {
+		// if the previous replacement hasn't started yet, it's replaced instead and the old set stays on air
+		if (tag.replacedCallback == null) {
+			if (tag.advertisingStarted) tag.replacedCallback = tag.advertisingSetCallback;
+			else stopAdvertisingSet(bluetoothLeAdvertiser, tag);
+		}
+		return startAdvertisingSet(tag, advertisingSetTxPower);
+	}
+	
+	/*
+	 * For rate and TX power changes, the running sets are updated in place: disable, new parameters, new data, enable. The stack 
+	 * applies them in order, so the tag is off air only for the few milliseconds in between. Sets that are not up are replaced.
+	 */
+	private void updateAdvertisingSets() {
+		if (bluetoothOff) return;
+		BluetoothLeAdvertiser bluetoothLeAdvertiser;
+		try {
+			bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
+		} catch (QuuppaTagException e) {
+			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
+			return;
+		}
+		Log.d(getClass().getSimpleName(), "updateAdvertisingSets");
+		int advertisingSetTxPower = getAdvertisingSetTxPower();
+		for (EmulatedTag tag : tags) {
+			if (tag.isFailing()) continue;
+			AdvertisingSet advertisingSet = tag.advertisingSet;
+			if (tag.advertisingStarted && advertisingSet != null && tag.replacedCallback == null) {
+				if (!updateAdvertisingSet(tag, advertisingSet, advertisingSetTxPower)) return;
+			}
+			else if (!replaceAdvertisingSet(bluetoothLeAdvertiser, tag, advertisingSetTxPower)) return;
+		}
+	}
+	
+	private boolean updateAdvertisingSet(EmulatedTag tag, AdvertisingSet advertisingSet, int advertisingSetTxPower) {
+		AdvertisingSetParameters advertisingSetParameters = createAdvertisingSetParameters(tag, advertisingSetTxPower);
+		byte[] data = null;
+		try {
+			data = createManufacturerData(tag, advertisingSetTxPower);
+		} catch (QuuppaTagException e) {
+			// this should only fail in case of an IOException
+			e.printStackTrace();
+			sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
+			return false;
+		}
+		advertisingSet.enableAdvertising(false, 0, 0);
+		advertisingSet.setAdvertisingParameters(advertisingSetParameters);
+		tag.advertisingSetParameters = advertisingSetParameters;
+		updateAdvertisingData(tag, advertisingSet, data);
+		advertisingSet.enableAdvertising(true, 0, 0);
+		return true;
+	}
+	
+	private void stopReplacedAdvertisingSet(EmulatedTag tag) {
+		try {
+			QuuppaTag.getBluetoothLeAdvertiser(this).stopAdvertisingSet(tag.replacedCallback);
+		} catch (QuuppaTagException e) {}
+		tag.replacedCallback = null;
+	}
+	
+	// by motion state, capped by the power tier and lowered further when thermally throttled
+	private int getAdvertisingSetTxPower() {
+		PowerTier tier = powerPolicy.getTier();
+		int txPower = moving ? Math.min(QuuppaTag.getAdvertisingSetTxPower(this), tier.maxMovingTxPower)
+				: Math.min(QuuppaTag.getStationaryAdvertisingSetTxPower(this), tier.maxStationaryTxPower);
+		return thermalThrottle.throttleTxPower(txPower);
+	}
+	
+	private AdvertisingSetParameters createAdvertisingSetParameters(EmulatedTag tag, int advertisingSetTxPower) {
 		// primary channel interval is 0.625ms per unit,
 		// https://developer.android.com/reference/android/bluetooth/le/AdvertisingSetParameters.Builder#setInterval(int)
 		// ~3Hz / 0.1 Hz
-		int interval = moving ? ADVERTISING_INTERVAL_MOVING : ADVERTISING_INTERVAL_STATIONARY;
-		
-		int advertisingSetTxPower = QuuppaTag.getAdvertisingSetTxPower(this);
+		int interval = getAdvertisingInterval(tag, moving);
 
-		advertisingSetParameters = new AdvertisingSetParameters.Builder()
+		return new AdvertisingSetParameters.Builder()
 				.setLegacyMode(true)
 				.setConnectable(true)
 				.setScannable(true)
 				.setInterval(interval)
 				.setTxPowerLevel(advertisingSetTxPower)
 				.build();
+	}
+	
+	// @return false if advertising couldn't be started and there's no point trying the other tags
+	private boolean startAdvertisingSet(EmulatedTag tag, int advertisingSetTxPower) {
+		AdvertisingSetParameters advertisingSetParameters = createAdvertisingSetParameters(tag, advertisingSetTxPower);
+		tag.advertisingSetParameters = advertisingSetParameters;
 		
-		AdvertiseData advertiseData = null;
+		byte[] data = null;
 		try {
-			advertiseData = createAdvertiseData();
+			data = createManufacturerData(tag, advertisingSetTxPower);
 		} catch (QuuppaTagException e) {
 			// this should only fail in case of an IOException
 			e.printStackTrace();
 			sendBroadcast(new Intent(IntentAction.QT_SYSTEM_ERROR.fullyQualifiedName()));
-			return;
+			return false;
 		}
 
 		AdvertiseData scanResponse = null;
@@ -557,19 +1872,25 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 
 		try {
 			BluetoothLeAdvertiser bluetoothLeAdvertiser = QuuppaTag.getBluetoothLeAdvertiser(this);
-			Log.d(getClass().getSimpleName(), "startAdvertisingSet");
+			Log.d(getClass().getSimpleName(), "startAdvertisingSet tag " + tag.tagId);
 			
-			advertisingSetCallback = createAdvertisingSetCallback();
-			bluetoothLeAdvertiser.startAdvertisingSet(advertisingSetParameters, advertiseData,
-					scanResponse, null, null, duration, maxExtendedAdvertisingEvents, advertisingSetCallback);
+			// a start still in flight is superseded, its callbacks are ignored from now on so it has to be stopped here
+			if (tag.advertisingSetCallback != null && tag.advertisingSetCallback != tag.replacedCallback)
+				bluetoothLeAdvertiser.stopAdvertisingSet(tag.advertisingSetCallback);
+			tag.advertisingSetCallback = createAdvertisingSetCallback(tag);
+			tag.publishedData = null;
+			tag.inFlightData = data;
+			tag.pendingData = null;
+			bluetoothLeAdvertiser.startAdvertisingSet(advertisingSetParameters, createAdvertiseData(data),
+					scanResponse, null, null, duration, maxExtendedAdvertisingEvents, tag.advertisingSetCallback);
 		} catch (IllegalArgumentException iae) {
 			Log.e(getClass().getSimpleName(),
 					"Couldn't start advertising because: " + iae.getMessage());
 		} catch (QuuppaTagException e) {
 			sendBroadcast(new Intent(IntentAction.QT_BLE_NOT_ENABLED.fullyQualifiedName()));
-			return;
+			return false;
 		}
-
+		return true;
 	}
 
 	@Override
@@ -579,8 +1900,16 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		if (running) sendBroadcast(new Intent(IntentAction.QT_STOPPED.fullyQualifiedName()));
 		stop();
 
-		connectivityManager.unregisterNetworkCallback(networkCallback);
-		unregisterLocationListener();
+		unregisterActivationInputs();
+		// stopped for good, not just until the next operating window
+		if (!dormant) {
+			getSystemService(AlarmManager.class).cancel(getAlarmIntent(this, IntentAction.QT_SCHEDULE_CHECK, SCHEDULE_CHECK_ALARM));
+		}
+		// a result still on its way is ignored
+		arbitrationCheckPending = false;
+		claimedTagId = null;
+		arbitrationWaitingIntents.clear();
+		getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE).unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
 		
 		NotificationManager manager = getSystemService(NotificationManager.class);
 		if (notificationChannelId != null)
@@ -592,15 +1921,31 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 	
 	private void stop() {
 		running = false;
+		publishAdvertisedTagIds();
 		if (sensorManager != null) sensorManager.unregisterListener(this);
+		sensorDelay = 0;
+		pressureSensorRegistered = false;
+		forcedMovingUntil = 0;
+		stopMotionConfirmation();
+		motionClassifier.reset();
+		motionClass = MotionClassifier.MotionClass.STILL;
+		updateBatteryReceiver();
+		unregisterThermalStatusListener();
+		unregisterDeviceStateReceiver();
+		unregisterBluetoothStateReceiver();
 
-		if (advertisingStarted) stopAdvertisingSet();
+		if (isAdvertisingStarted()) stopAdvertisingSet();
+		for (EmulatedTag tag : tags) cancelAdvertisingRetry(tag);
+		stopOnsetBurst();
 		stopStationaryCheckAlarm();
 
 		// Release wake lock
 		if (wakeLock != null && wakeLock.isHeld()) {
 			wakeLock.release();
 		}
+		
+		// without the accelerometer we don't know whether we are stationary anymore
+		if (geofence != null && locationPolicy.isSuspended()) updateLocationRequest();
 	}
 
 	private static String createNotificationChannel(Context context) {
@@ -611,7 +1956,6 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		return notificationChannel.getId();
 	}
 
-	private float[] gravity;
 	private double accel;
 	private double accelCurrent;
 	private double accelLast;
@@ -621,21 +1965,113 @@ public class QuuppaTagService extends Service implements SensorEventListener {
 		Sensor sensor = event.sensor;
 
 		if (sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-			gravity = event.values.clone();
-			// Shake detection
-			double x = gravity[0];
-			double y = gravity[1];
-			double z = gravity[2];
+			// Shake detection, called at the sensor rate so don't allocate here
+			float x = event.values[0];
+			float y = event.values[1];
+			float z = event.values[2];
 			accelLast = accelCurrent;
 			accelCurrent = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
 			double delta = accelCurrent - accelLast;
 			accel = accel * 0.9f + delta;
+			// the noise floor is only sampled when settled still, gentle motion below the threshold would raise it until walking 
+			// isn't detected anymore
+			if (shakeThresholdCalibration && motionClassifier.isSettledStill() && noiseFloorCalibrator.add((float) accel)) 
+				calibrateShakeThreshold();
 
 			if (accel > shakeThreshold) {
-				Log.v(getClass().getSimpleName(), "Moved, was moving " + moving);
-				lastMoved = System.currentTimeMillis();
-				if (!moving) adjustAdvertisingSchedule(IntentAction.QT_MOVING);
+				// leaving stationary restarts advertising, make sure it's not just a knock or vibration
+				if (!moving && motionConfirmation && confirmationSensor != null) startMotionConfirmation();
+				else {
+					Log.v(getClass().getSimpleName(), "Moved, was moving " + moving);
+					lastMoved = System.currentTimeMillis();
+					if (!moving) adjustAdvertisingSchedule(IntentAction.QT_MOVING);
+				}
 			}
+			if (motionClassifier.onSample(x, y, z, event.timestamp)) onMotionClassified();
+			checkAdvertisingLiveness();
+		}
+		else if (sensor.getType() == Sensor.TYPE_PRESSURE) {
+			if (floorChangeDetector.onPressure(event.values[0], event.timestamp)) onFloorChange();
+		}
+		else if (confirmingMotion && sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+			float x = event.values[0];
+			float y = event.values[1];
+			float z = event.values[2];
+			if (x * x + y * y + z * z > CONFIRMATION_ROTATION_RATE * CONFIRMATION_ROTATION_RATE) confirmMotion();
+		}
+		else if (confirmingMotion && sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
+			float x = event.values[0];
+			float y = event.values[1];
+			float z = event.values[2];
+			if (x * x + y * y + z * z < CONFIRMATION_LINEAR_ACCELERATION * CONFIRMATION_LINEAR_ACCELERATION) confirmationSamples = 0;
+			else if (++confirmationSamples >= CONFIRMATION_SAMPLES) confirmMotion();
+		}
+	}
+	
+	private void registerPressureSensor() {
+		boolean detection = pressureSensor != null && QuuppaTag.isFloorChangeDetection(this);
+		if (detection == pressureSensorRegistered) return;
+		pressureSensorRegistered = detection;
+		if (detection) {
+			floorChangeDetector.reset();
+			sensorManager.registerListener(this, pressureSensor, PRESSURE_SAMPLING_PERIOD_US, PRESSURE_MAX_REPORT_LATENCY_US);
+		}
+		else sensorManager.unregisterListener(this, pressureSensor);
+	}
+	
+	// The accelerometer sees little motion in an elevator, switch to the moving rate for a while on a floor change
+	private void onFloorChange() {
+		Log.v(getClass().getSimpleName(), "Floor change detected, was moving " + moving);
+		forcedMovingUntil = System.currentTimeMillis() + FLOOR_CHANGE_MOVING_MS;
+		if (!moving) adjustAdvertisingSchedule(IntentAction.QT_MOVING);
+	}
+	
+	// Sample the confirmation sensor only for the confirmation window
+	private void startMotionConfirmation() {
+		if (confirmingMotion) return;
+		confirmingMotion = true;
+		confirmationSamples = 0;
+		sensorManager.registerListener(this, confirmationSensor, SensorManager.SENSOR_DELAY_GAME);
+		handler.postDelayed(motionConfirmationTimeout, MOTION_CONFIRMATION_WINDOW_MS);
+	}
+	
+	private void stopMotionConfirmation() {
+		if (!confirmingMotion) return;
+		confirmingMotion = false;
+		sensorManager.unregisterListener(this, confirmationSensor);
+		handler.removeCallbacks(motionConfirmationTimeout);
+	}
+	
+	private void confirmMotion() {
+		stopMotionConfirmation();
+		Log.v(getClass().getSimpleName(), "Moved, confirmed by " + confirmationSensor.getName() + ", was moving " + moving);
+		lastMoved = System.currentTimeMillis();
+		if (!moving) adjustAdvertisingSchedule(IntentAction.QT_MOVING);
+	}
+	
+	private void calibrateShakeThreshold() {
+		float threshold = noiseFloorCalibrator.calibrate();
+		if (Float.isNaN(threshold)) return;
+		long now = SystemClock.elapsedRealtime();
+		// first calibration applies right away, after that only periodically
+		if (lastShakeThresholdCalibration != 0 && now - lastShakeThresholdCalibration < SHAKE_THRESHOLD_RECALIBRATION_MS) return;
+		lastShakeThresholdCalibration = now;
+		if (Math.abs(threshold - shakeThreshold) < shakeThreshold * 0.1f) return;
+		Log.i(getClass().getSimpleName(), "Calibrated shake threshold from " + shakeThreshold + " to " + threshold);
+		shakeThreshold = threshold;
+		// called from the sensor callback on the main thread, don't wait for the disk
+		getSharedPreferences(QuuppaTag.PREFS, Context.MODE_PRIVATE).edit().putFloat(QuuppaTag.PREFS_SHAKE_THRESHOLD, threshold).apply();
+	}
+	
+	// Pick the advertising rate by the kind of motion
+	private void onMotionClassified() {
+		MotionClassifier.MotionClass newMotionClass = motionClassifier.getMotionClass();
+		if (newMotionClass == motionClass || motionClassifier.getConfidence() < MIN_MOTION_CLASS_CONFIDENCE) return;
+		Log.v(getClass().getSimpleName(), "Motion class " + newMotionClass + ", confidence " + motionClassifier.getConfidence());
+		boolean intervalChanged = newMotionClass.intervalShift != motionClass.intervalShift;
+		motionClass = newMotionClass;
+		if (intervalChanged && moving && isAdvertisingStarted()) {
+			updateAdvertisingSets();
 		}
 	}
 
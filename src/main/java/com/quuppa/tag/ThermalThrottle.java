@@ -0,0 +1,101 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.hardware.SensorManager;
+
+/**
+ * Steps advertising and sensing down as the thermal status worsens. Every status level at or above the configured start status is
+ * one step: each step doubles the advertising interval and the accelerometer sampling period and lowers the TX power by one level.
+ * Thermal status values are those of PowerManager.THERMAL_STATUS_ (API 29).
+ */
+final class ThermalThrottle {
+	static final int THERMAL_STATUS_NONE = 0;
+	static final int MAX_STEPS = 4;
+	// longest interval legacy advertising allows is 10.24 s
+	private static final int MAX_INTERVAL = 16384;
+	private static final int[] TX_POWER_LEVELS = { AdvertisingSetParameters.TX_POWER_ULTRA_LOW, AdvertisingSetParameters.TX_POWER_LOW,
+			AdvertisingSetParameters.TX_POWER_MEDIUM, AdvertisingSetParameters.TX_POWER_HIGH };
+
+	private int startStatus;
+	private int status = THERMAL_STATUS_NONE;
+	private int steps;
+	private long throttledSince;
+
+	ThermalThrottle(int startStatus) {
+		this.startStatus = startStatus;
+	}
+
+	/** @return true if the number of steps changed */
+	boolean configure(int startStatus, long now) {
+		this.startStatus = startStatus;
+		return setStatus(status, now);
+	}
+
+	/**
+	 * @param status one of the PowerManager.THERMAL_STATUS_ values
+	 * @param now current time in elapsed realtime milliseconds
+	 * @return true if the number of steps changed
+	 */
+	boolean setStatus(int status, long now) {
+		this.status = status;
+		int newSteps = status < startStatus ? 0 : Math.min(MAX_STEPS, status - startStatus + 1);
+		if (newSteps == steps) return false;
+		if (steps == 0) throttledSince = now;
+		else if (newSteps == 0) QuuppaTagMetrics.addThermalThrottledTimeMs(now - throttledSince);
+		steps = newSteps;
+		return true;
+	}
+
+	/** Records the ongoing throttling period, e.g. when the status is not observed anymore */
+	void reset(long now) {
+		setStatus(THERMAL_STATUS_NONE, now);
+	}
+
+	int getSteps() {
+		return steps;
+	}
+
+	int throttleInterval(int interval) {
+		return Math.min(MAX_INTERVAL, interval << steps);
+	}
+
+	int throttleTxPower(int txPower) {
+		int level = 0;
+		while (level < TX_POWER_LEVELS.length - 1 && TX_POWER_LEVELS[level + 1] <= txPower) level++;
+		return TX_POWER_LEVELS[Math.max(0, level - steps)];
+	}
+
+	/** @param sensorDelay one of the SensorManager.SENSOR_DELAY_ constants or a sampling period in microseconds */
+	int throttleSensorDelay(int sensorDelay) {
+		if (steps == 0) return sensorDelay;
+		int periodUs;
+		switch (sensorDelay) {
+		case SensorManager.SENSOR_DELAY_FASTEST:
+			// as fast as possible, about the game rate in practice
+		case SensorManager.SENSOR_DELAY_GAME:
+			periodUs = 20000;
+			break;
+		case SensorManager.SENSOR_DELAY_UI:
+			periodUs = 66667;
+			break;
+		case SensorManager.SENSOR_DELAY_NORMAL:
+			periodUs = 200000;
+			break;
+		default:
+			periodUs = sensorDelay;
+		}
+		return periodUs << steps;
+	}
+}
@@ -0,0 +1,117 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Matches the current Wi-Fi network against the selected SSIDs and BSSIDs. SSIDs are kept in a hash set both as is and in the
+ * quoted form WifiInfo.getSSID() returns, so a lookup doesn't need to strip the quotes. BSSIDs are parsed into 48-bit longs
+ * and kept in an open addressing hash table so matching doesn't allocate.
+ */
+final class WifiMatcher {
+	/** Returned by {@link #parseBssid(String)} if the BSSID isn't available */
+	static final long NO_BSSID = -1L;
+	// WifiInfo.getBSSID() returns this when the app isn't allowed to see the real one
+	private static final long REDACTED_BSSID = 0x020000000000L;
+
+	private final Set<String> ssids = new HashSet<>();
+	private final long[] bssidTable;
+	private final int bssidCount;
+
+	WifiMatcher(Collection<String> ssids, Collection<String> bssids) {
+		if (ssids != null) for (String ssid : ssids) {
+			if (ssid == null || ssid.isEmpty()) continue;
+			String unquoted = ssid.length() > 1 && ssid.startsWith("\"") && ssid.endsWith("\"") ? ssid.substring(1, ssid.length() - 1) : ssid;
+			this.ssids.add(unquoted);
+			this.ssids.add("\"" + unquoted + "\"");
+		}
+
+		int count = bssids == null ? 0 : bssids.size();
+		// keep the load factor at or below 0.5, size is a power of two
+		int size = 2;
+		while (size < count * 2) size <<= 1;
+		bssidTable = new long[size];
+		for (int i = 0; i < size; i++) bssidTable[i] = NO_BSSID;
+		int added = 0;
+		if (bssids != null) for (String bssid : bssids) {
+			long value = parseBssid(bssid);
+			if (value == NO_BSSID) throw new IllegalArgumentException("Invalid BSSID '" + bssid + "'");
+			if (addBssid(value)) added++;
+		}
+		bssidCount = added;
+	}
+
+	private boolean addBssid(long bssid) {
+		int mask = bssidTable.length - 1;
+		for (int i = hash(bssid) & mask;; i = (i + 1) & mask) {
+			if (bssidTable[i] == bssid) return false;
+			if (bssidTable[i] == NO_BSSID) {
+				bssidTable[i] = bssid;
+				return true;
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		value *= 0x9E3779B97F4A7C15L;
+		return (int) (value ^ (value >>> 32));
+	}
+
+	boolean isEmpty() {
+		return ssids.isEmpty() && bssidCount == 0;
+	}
+
+	boolean hasSsids() {
+		return !ssids.isEmpty();
+	}
+
+	boolean hasBssids() {
+		return bssidCount > 0;
+	}
+
+	boolean matchesSsid(String ssid) {
+		return ssid != null && ssids.contains(ssid);
+	}
+
+	boolean matchesBssid(long bssid) {
+		if (bssid == NO_BSSID || bssidCount == 0) return false;
+		int mask = bssidTable.length - 1;
+		for (int i = hash(bssid) & mask;; i = (i + 1) & mask) {
+			if (bssidTable[i] == bssid) return true;
+			if (bssidTable[i] == NO_BSSID) return false;
+		}
+	}
+
+	/**
+	 * Parses "aa:bb:cc:dd:ee:ff" (also accepts '-' separators) without allocating.
+	 * @return the BSSID as a 48-bit value or {@link #NO_BSSID} if null, malformed or redacted
+	 */
+	static long parseBssid(String bssid) {
+		if (bssid == null || bssid.length() != 17) return NO_BSSID;
+		long value = 0;
+		for (int i = 0; i < 17; i++) {
+			char c = bssid.charAt(i);
+			if (i % 3 == 2) {
+				if (c != ':' && c != '-') return NO_BSSID;
+				continue;
+			}
+			int digit = Character.digit(c, 16);
+			if (digit < 0) return NO_BSSID;
+			value = (value << 4) | digit;
+		}
+		return value == REDACTED_BSSID ? NO_BSSID : value;
+	}
+}
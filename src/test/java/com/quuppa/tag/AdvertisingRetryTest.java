@@ -0,0 +1,157 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.quuppa.tag.QuuppaTag.DeviceType;
+
+import android.bluetooth.le.AdvertisingSetCallback;
+
+/**
+ * Recovery-time SLA of failed advertising starts: a tag failing any number of times is started again within a minute of the
+ * cause being gone, and failures that won't go away are never retried. Runs the retries on a fake clock.
+ */
+public class AdvertisingRetryTest {
+	/** Handler on a fake clock, runs the posted callbacks in order of their due time */
+	private static final class FakeScheduler implements AdvertisingRetry.Scheduler {
+		private final List<Runnable> runnables = new ArrayList<>();
+		private final List<Long> dueTimes = new ArrayList<>();
+		long now;
+
+		@Override
+		public void postDelayed(Runnable runnable, long delayMs) {
+			runnables.add(runnable);
+			dueTimes.add(now + delayMs);
+		}
+
+		@Override
+		public void removeCallbacks(Runnable runnable) {
+			for (int i = runnables.size() - 1; i >= 0; i--) {
+				if (runnables.get(i) != runnable) continue;
+				runnables.remove(i);
+				dueTimes.remove(i);
+			}
+		}
+
+		int pending() {
+			return runnables.size();
+		}
+
+		/** @return false if nothing was pending */
+		boolean runNext() {
+			if (runnables.isEmpty()) return false;
+			int next = 0;
+			for (int i = 1; i < dueTimes.size(); i++) if (dueTimes.get(i) < dueTimes.get(next)) next = i;
+			now = dueTimes.remove(next);
+			runnables.remove(next).run();
+			return true;
+		}
+	}
+
+	/** The advertiser failing with the given status until the cause is gone */
+	private static final class FakeAdvertiser implements AdvertisingRetry.Starter {
+		final FakeScheduler scheduler;
+		final int status;
+		final long causeGoneAt;
+		AdvertisingRetry retry;
+		int starts;
+		long startedAt = -1;
+
+		FakeAdvertiser(FakeScheduler scheduler, int status, long causeGoneAt) {
+			this.scheduler = scheduler;
+			this.status = status;
+			this.causeGoneAt = causeGoneAt;
+		}
+
+		@Override
+		public void start(EmulatedTag tag) {
+			starts++;
+			if (scheduler.now < causeGoneAt) retry.onFailed(tag, status, scheduler.now);
+			else {
+				// what the service does in onAdvertisingSetStarted
+				tag.failures = 0;
+				startedAt = scheduler.now;
+			}
+		}
+	}
+
+	private static EmulatedTag createTag() {
+		return new EmulatedTag("0123456789ab", DeviceType.SMARTPHONE, 0);
+	}
+
+	@Test
+	public void restartedWithinSlaAfterCauseIsGone() {
+		// the cause lasting from under a second to an hour
+		for (long outageMs : new long[] { 500L, 3000L, 60000L, 10 * 60000L, 60 * 60000L }) {
+			for (long seed = 0; seed < 20; seed++) {
+				FakeScheduler scheduler = new FakeScheduler();
+				FakeAdvertiser advertiser = new FakeAdvertiser(scheduler, AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR, outageMs);
+				advertiser.retry = new AdvertisingRetry(scheduler, advertiser, new Random(seed));
+				EmulatedTag tag = createTag();
+				// the first start fails
+				advertiser.start(tag);
+				while (advertiser.startedAt < 0) assertTrue(scheduler.runNext());
+				long silentMs = advertiser.startedAt - outageMs;
+				assertTrue("Tag silent for " + silentMs + " ms after a " + outageMs + " ms outage", silentMs < EmulatedTagTest.RECOVERY_SLA_MS);
+				assertFalse(tag.isFailing());
+				// one retry at a time, none left after the restart
+				assertEquals(0, scheduler.pending());
+			}
+		}
+	}
+
+	@Test
+	public void failuresBeforeTheRetryKeepOneRetryPending() {
+		FakeScheduler scheduler = new FakeScheduler();
+		FakeAdvertiser advertiser = new FakeAdvertiser(scheduler, AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR, Long.MAX_VALUE);
+		AdvertisingRetry retry = advertiser.retry = new AdvertisingRetry(scheduler, advertiser, new Random(42));
+		EmulatedTag tag = createTag();
+		// e.g. a reconfiguration failing while the retry is pending
+		for (int i = 0; i < 5; i++) retry.onFailed(tag, AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR, 0);
+		assertEquals(1, scheduler.pending());
+		assertEquals(5, tag.failures);
+		retry.cancel(tag);
+		assertEquals(0, scheduler.pending());
+	}
+
+	@Test
+	public void permanentFailuresAreNeverRetried() {
+		for (int status : new int[] { AdvertisingSetCallback.ADVERTISE_FAILED_DATA_TOO_LARGE, AdvertisingSetCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED }) {
+			FakeScheduler scheduler = new FakeScheduler();
+			FakeAdvertiser advertiser = new FakeAdvertiser(scheduler, status, Long.MAX_VALUE);
+			AdvertisingRetry retry = advertiser.retry = new AdvertisingRetry(scheduler, advertiser, new Random(42));
+			EmulatedTag tag = createTag();
+			assertEquals(-1, retry.onFailed(tag, status, 0));
+			assertTrue(tag.failedPermanently);
+			assertTrue(tag.isFailing());
+			assertFalse(scheduler.runNext());
+			assertEquals(0, advertiser.starts);
+
+			// given up on even with a transient failure's retry pending
+			tag = createTag();
+			assertTrue(retry.onFailed(tag, AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR, 0) > 0);
+			assertEquals(-1, retry.onFailed(tag, status, 0));
+			assertFalse(scheduler.runNext());
+			assertEquals(0, advertiser.starts);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.quuppa.tag.QuuppaTag.DeviceType;
+
+/**
+ * Backoff of failed advertising starts, bounded so that a tag is back on air within a minute of the cause being gone. The
+ * retries themselves are tested in {@link AdvertisingRetryTest}.
+ */
+public class EmulatedTagTest {
+	static final long RECOVERY_SLA_MS = 64000L;
+	// just below 1, the longest delay getRetryDelayMs can give
+	private static final double WORST_RANDOM = Math.nextDown(1.0);
+
+	private static EmulatedTag createTag() {
+		return new EmulatedTag("0123456789ab", DeviceType.SMARTPHONE, 0);
+	}
+
+	@Test
+	public void retryDelayDoublesWithJitter() {
+		EmulatedTag tag = createTag();
+		long delay = EmulatedTag.RETRY_BASE_DELAY_MS;
+		for (tag.failures = 1; tag.failures <= EmulatedTag.MAX_RETRY_SHIFT + 1; tag.failures++, delay *= 2) {
+			assertEquals(delay / 2, tag.getRetryDelayMs(0));
+			assertTrue(tag.getRetryDelayMs(WORST_RANDOM) < delay);
+		}
+	}
+
+	@Test
+	public void retryDelayIsBounded() {
+		EmulatedTag tag = createTag();
+		for (tag.failures = 1; tag.failures < 1000; tag.failures++)
+			assertTrue(tag.getRetryDelayMs(WORST_RANDOM) < RECOVERY_SLA_MS);
+	}
+
+	@Test
+	public void failingTagIsLeftToItsRetry() {
+		EmulatedTag tag = createTag();
+		assertFalse(tag.isFailing());
+		tag.failures = 1;
+		assertTrue(tag.isFailing());
+		tag.failures = 0;
+		tag.failedPermanently = true;
+		assertTrue(tag.isFailing());
+	}
+}
@@ -0,0 +1,120 @@
+// Copyright 2025 Quuppa Oy
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//    http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.quuppa.tag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.quuppa.tag.MotionClassifier.MotionClass;
+
+/**
+ * Regression check of the classifier on the accelerometer traces in src/test/resources/com/quuppa/tag/motion, one 
+ * "timestamp_ns,x,y,z" sample per line at the SENSOR_DELAY_NORMAL rate the service uses. The traces are synthetic, made by 
+ * generate_traces.py there from the classifier's own assumptions, so they catch changes in behavior but don't measure accuracy 
+ * on real devices.
+ */
+public class MotionClassifierTest {
+	private static final long NS_PER_S = 1_000_000_000L;
+
+	// class, whether settled still and trace time in seconds of each evaluation
+	private static class Evaluation {
+		final MotionClass motionClass;
+		final boolean settledStill;
+		final double time;
+
+		Evaluation(MotionClass motionClass, boolean settledStill, double time) {
+			this.motionClass = motionClass;
+			this.settledStill = settledStill;
+			this.time = time;
+		}
+	}
+
+	private static List<Evaluation> classify(String trace) throws IOException {
+		List<Evaluation> evaluations = new ArrayList<>();
+		MotionClassifier classifier = new MotionClassifier();
+		InputStream in = MotionClassifierTest.class.getResourceAsStream("motion/" + trace + ".csv");
+		assertNotNull("Missing trace " + trace, in);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			long start = -1;
+			for (String line; (line = reader.readLine()) != null;) {
+				if (line.startsWith("#") || line.trim().isEmpty()) continue;
+				String[] parts = line.split(",");
+				long timestampNs = Long.parseLong(parts[0]);
+				if (start < 0) start = timestampNs;
+				if (classifier.onSample(Float.parseFloat(parts[1]), Float.parseFloat(parts[2]), Float.parseFloat(parts[3]), timestampNs))
+					evaluations.add(new Evaluation(classifier.getMotionClass(), classifier.isSettledStill(), 
+							(double) (timestampNs - start) / NS_PER_S));
+			}
+		}
+		return evaluations;
+	}
+
+	// share of the evaluations from the given trace time on that got the class
+	private static double share(List<Evaluation> evaluations, MotionClass motionClass, double from) {
+		int total = 0, matching = 0;
+		for (Evaluation evaluation : evaluations) {
+			if (evaluation.time < from) continue;
+			total++;
+			if (evaluation.motionClass == motionClass) matching++;
+		}
+		return (double) matching / total;
+	}
+
+	@Test
+	public void still() throws IOException {
+		assertEquals(1.0, share(classify("still"), MotionClass.STILL, 0), 0);
+	}
+
+	// the shake threshold calibration samples the noise floor only when settled still
+	@Test
+	public void settledStillOnlyWhenStill() throws IOException {
+		List<Evaluation> evaluations = classify("still");
+		assertFalse(evaluations.get(0).settledStill);
+		assertTrue(evaluations.get(evaluations.size() - 1).settledStill);
+		for (String trace : new String[] { "handheld", "walking", "vehicle" }) {
+			for (Evaluation evaluation : classify(trace)) assertFalse(trace + " settled still at " + evaluation.time + " s", evaluation.settledStill);
+		}
+	}
+
+	@Test
+	public void handheldTiltsAreNotVehicle() throws IOException {
+		List<Evaluation> evaluations = classify("handheld");
+		assertEquals(0.0, share(evaluations, MotionClass.VEHICLE, 0), 0);
+		assertTrue(share(evaluations, MotionClass.HANDHELD, 0) >= 0.9);
+	}
+
+	@Test
+	public void walking() throws IOException {
+		assertTrue(share(classify("walking"), MotionClass.WALKING, 0) >= 0.9);
+	}
+
+	@Test
+	public void vehicle() throws IOException {
+		List<Evaluation> evaluations = classify("vehicle");
+		// entered on the second episode of sustained acceleration, after pulling away from the first stop
+		assertTrue(share(evaluations, MotionClass.VEHICLE, 0) > 0);
+		assertTrue(share(evaluations, MotionClass.VEHICLE, 60) >= 0.9);
+	}
+}
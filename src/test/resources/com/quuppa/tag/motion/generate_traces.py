@@ -0,0 +1,134 @@
+# Copyright 2025 Quuppa Oy
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#    http://www.apache.org/licenses/LICENSE-2.0
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""
+Generates the synthetic accelerometer traces MotionClassifierTest runs on, one "timestamp_ns,x,y,z" sample per line. Run with
+Python 3 from any directory, the traces are written next to this script and are the same on every run.
+
+The traces are modelled from the same assumptions the classifier makes, so passing them is a regression check of the
+classifier, not evidence of how it does on real devices. Recorded traces in the same format can be dropped in next to these.
+
+Parameters of each trace, all accelerations in m/s^2 and the device frame as in android.hardware.SensorEvent:
+  still     120 s, gravity on z, Gaussian noise sd 0.02 on each axis
+  handheld  180 s, pitched 40 degrees with a 1.5 degree 0.05 Hz wander, turned by 25-50 degrees over 0.5-1.2 s five
+            times (pitch at 20, 100 and 150 s, roll at 60 and 140 s), noise sd 0.2
+  walking   120 s, pitched 30 degrees, 1.8 steps/s with a vertical bounce of 2.5 at the step rate and 0.6 at twice that,
+            forward surge 0.8, noise sd 0.3
+  vehicle   300 s, dashboard mount pitched 70 degrees, forward and lateral acceleration pulses of 1.0-2.0 from DRIVE with 1 s
+            ramps, noise sd 0.2 while driving and 0.04 during STOPS
+"""
+
+import math
+import os
+import random
+
+G = 9.81
+# SENSOR_DELAY_NORMAL, the rate the service samples at
+RATE = 5.0
+# each sample interval is off by up to this much, like real sensor timestamps
+JITTER_NS = 5000000
+OUT_DIR = os.path.dirname(os.path.abspath(__file__))
+
+
+def rot(pitch, roll):
+    """Transforms a world vector to the device frame, rotated about x by pitch and then about y by roll"""
+    cp, sp, cr, sr = math.cos(pitch), math.sin(pitch), math.cos(roll), math.sin(roll)
+
+    def f(v):
+        x, y, z = v
+        y1 = cp * y + sp * z
+        z1 = -sp * y + cp * z
+        x1 = x
+        x2 = cr * x1 - sr * z1
+        z2 = sr * x1 + cr * z1
+        return (x2, y1, z2)
+    return f
+
+
+def ramp(t, t0, t1, a, b):
+    """Smoothstep from a at t0 to b at t1"""
+    if t <= t0:
+        return a
+    if t >= t1:
+        return b
+    u = (t - t0) / (t1 - t0)
+    u = u * u * (3 - 2 * u)
+    return a + (b - a) * u
+
+
+def smooth_pulse(t, t0, t1, amp, rise=1.0):
+    return amp * min(ramp(t, t0, t0 + rise, 0, 1), ramp(t, t1 - rise, t1, 1, 0))
+
+
+def write(name, duration, sample, seed, comment):
+    rnd = random.Random(seed)
+    with open(os.path.join(OUT_DIR, name + '.csv'), 'w') as f:
+        f.write('# %s, synthetic, see generate_traces.py\n# timestamp_ns,x,y,z in m/s^2, %g Hz\n' % (comment, RATE))
+        n = int(duration * RATE)
+        t_ns = 1000000000
+        for i in range(n):
+            t = i / RATE
+            x, y, z = sample(t, rnd)
+            f.write('%d,%.3f,%.3f,%.3f\n' % (t_ns, x, y, z))
+            t_ns += int(1e9 / RATE) + rnd.randint(-JITTER_NS, JITTER_NS)
+
+
+def still(t, rnd):
+    return (rnd.gauss(0, 0.02), rnd.gauss(0, 0.02), G + rnd.gauss(0, 0.02))
+
+
+def handheld(t, rnd):
+    # held in front of the user, tremor and slow wander, turned now and then
+    pitch = math.radians(40 + 1.5 * math.sin(2 * math.pi * 0.05 * t)
+        + ramp(t, 20, 20.8, 0, 30) + ramp(t, 100, 101.2, 0, -50) + ramp(t, 150, 150.6, 0, 25))
+    roll = math.radians(ramp(t, 60, 60.5, 0, -30) + ramp(t, 140, 140.7, 0, 30))
+    gx, gy, gz = rot(pitch, roll)((0, 0, G))
+    s = 0.2
+    return (gx + rnd.gauss(0, s), gy + rnd.gauss(0, s), gz + rnd.gauss(0, s))
+
+
+def walking(t, rnd):
+    f = 1.8
+    pitch = math.radians(30)
+    bounce = 2.5 * math.sin(2 * math.pi * f * t) + 0.6 * math.sin(4 * math.pi * f * t + 1)
+    surge = 0.8 * math.sin(2 * math.pi * f * t + 0.5)
+    x, y, z = rot(pitch, 0)((0, surge, G + bounce))
+    s = 0.3
+    return (x + rnd.gauss(0, s), y + rnd.gauss(0, s), z + rnd.gauss(0, s))
+
+
+# forward (world y) and lateral (world x) acceleration pulses of the drive: axis, start s, end s, amplitude
+DRIVE = [
+    ('fwd', 10, 20, 1.5), ('fwd', 60, 66, -2.0), ('fwd', 80, 90, 1.2), ('lat', 120, 128, 2.0),
+    ('fwd', 150, 160, -1.5), ('fwd', 170, 180, 1.0), ('lat', 220, 226, -1.8), ('fwd', 250, 256, 1.4),
+    ('fwd', 288, 296, -1.6),
+]
+# engine idling, less vibration
+STOPS = [(0, 10), (66, 80), (160, 170), (296, 300)]
+
+
+def vehicle(t, rnd):
+    # phone in a dashboard mount
+    pitch = math.radians(70)
+    fwd = sum(smooth_pulse(t, a, b, amp) for k, a, b, amp in DRIVE if k == 'fwd')
+    lat = sum(smooth_pulse(t, a, b, amp) for k, a, b, amp in DRIVE if k == 'lat')
+    stopped = any(a <= t < b for a, b in STOPS)
+    s = 0.04 if stopped else 0.2
+    x, y, z = rot(pitch, 0)((lat, fwd, G))
+    return (x + rnd.gauss(0, s), y + rnd.gauss(0, s), z + rnd.gauss(0, s))
+
+
+if __name__ == '__main__':
+    write('still', 120, still, 1, 'phone lying on a table')
+    write('handheld', 180, handheld, 2, 'phone held in hand with tremor, turned by 25-50 degrees five times')
+    write('walking', 120, walking, 3, 'phone held in hand while walking at 1.8 steps/s')
+    write('vehicle', 300, vehicle, 4, 'phone in a dashboard mount, drive with stops at 0-10, 66-80, 160-170 and 296-300 s')